@@ -0,0 +1,331 @@
+/*
+   EventStormSimulator. Replays event traces against the widget service.
+   Copyright (C) 2013 Michael Glickman (Australia) <palmcrust@gmail.com>
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>
+*/
+
+package com.palmcrust.yawadb;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import android.app.PendingIntent;
+import android.appwidget.AppWidgetManager;
+import android.content.ComponentName;
+import android.content.Intent;
+import android.net.ConnectivityManager;
+import android.os.Looper;
+import android.os.Message;
+import android.os.MessageQueue;
+import android.os.SystemClock;
+import android.widget.RemoteViews;
+
+// Replays event traces against YawAdbService and reports, per trace, how
+// many analyses, forks and widget pushes they caused and how long it took
+// from an event to the widget updated after it, and how long the service
+// start took to the first paint of the widget image: of the stored status
+// (all traces but the first find one) and of the analysed status.
+//
+// Time is virtual (see android.os.MessageQueue stub): the debounce delay
+// and fork costs are counted exactly, real execution time is not, so the
+// results are the same on every run. Auto refresh runs in a real thread,
+// so it is left off (default options).
+//
+//   EventStormSimulator [-seed <n>] [-fork-cost <ms>] [-hidepid] [-v] [<trace file> ...]
+//
+// Without trace files, synthetic traces are generated (see SimTrace).
+public class EventStormSimulator implements MessageQueue.DispatchListener, AppWidgetManager.UpdateListener {
+	// Service start is not a part of the trace
+	private static final int StartupTime = 2000;
+	// Time to settle after the last event
+	private static final int SettleTime = 5000;
+	private static final String DefaultIpAddress = "192.168.1.100";
+
+	private static final String[][] broadcastActions = {
+		{"connectivity", ConnectivityManager.CONNECTIVITY_ACTION},
+		{"airplane", Intent.ACTION_AIRPLANE_MODE_CHANGED},
+		{"screen-on", Intent.ACTION_SCREEN_ON},
+		{"screen-off", Intent.ACTION_SCREEN_OFF},
+		{"popup", YawAdbConstants.PopupAction},
+	};
+
+	private final File workDir;
+	private final int forkCost;
+	private final boolean hidePid;
+	private final boolean verbose;
+
+	// Per trace
+	private SimDevice device;
+	private int broadcasts;
+	private int analyses;
+	private int appearanceUpdates;
+	private int pushes;
+	private int imagePushes;
+	private int lastImageResId;
+	// Since the service start, -1 until it happens
+	private long startTime;
+	private long firstPaint;
+	private long firstStatusPaint;
+	// Times of the events waiting for an analysis, and of those being analysed
+	private final List<Long> waiting = new ArrayList<Long>();
+	private final List<Long> analysed = new ArrayList<Long>();
+	private final List<Long> latencies = new ArrayList<Long>();
+
+	EventStormSimulator(File workDir, int forkCost, boolean hidePid, boolean verbose) {
+		this.workDir = workDir;
+		this.forkCost = forkCost;
+		this.hidePid = hidePid;
+		this.verbose = verbose;
+	}
+
+	public static void main(String[] args) throws IOException {
+		long seed = 1;
+		int forkCost = 30;
+		boolean hidePid = false;
+		boolean verbose = false;
+		List<SimTrace> traces = new ArrayList<SimTrace>();
+
+		try {
+			for (int i = 0; i < args.length; i++) {
+				if (args[i].equals("-seed"))
+					seed = Long.parseLong(args[++i]);
+				else
+				if (args[i].equals("-fork-cost"))
+					forkCost = Integer.parseInt(args[++i]);
+				else
+				if (args[i].equals("-hidepid"))
+					hidePid = true;
+				else
+				if (args[i].equals("-v"))
+					verbose = true;
+				else
+				if (args[i].startsWith("-"))
+					throw new IllegalArgumentException("Unknown option " + args[i]);
+				else
+					traces.add(SimTrace.load(new File(args[i])));
+			}
+		} catch (RuntimeException ex) {
+			System.err.println(ex.getMessage());
+			System.err.println("Usage: EventStormSimulator [-seed <n>] [-fork-cost <ms>] [-hidepid] [-v] [<trace file> ...]");
+			System.exit(1);
+		}
+		if (traces.isEmpty()) traces = SimTrace.createSynthetic(seed);
+
+		File workDir = File.createTempFile("yawadb-sim", "");
+		workDir.delete();
+		if (!workDir.mkdir()) throw new IOException("Can't create " + workDir);
+
+		try {
+			EventStormSimulator sim = new EventStormSimulator(workDir, forkCost, hidePid, verbose);
+			System.out.printf("fork cost %d ms%s%n%n", Integer.valueOf(forkCost), hidePid ? ", hidepid" : "");
+			System.out.printf("%-14s %6s %7s %8s %6s %7s %6s %9s   %s%n", 
+				"trace", "events", "bcasts", "analyses", "forks", "pushes", "image", "start ms", 
+				"latency ms avg/p50/p95/max");
+			for (SimTrace trace : traces)
+				sim.run(trace);
+		} finally {
+			deleteTree(workDir);
+		}
+		// The analyzer worker keeps waiting for work
+		System.exit(0);
+	}
+
+	void run(SimTrace trace) throws IOException {
+		File procRoot = new File(workDir, "proc-" + trace.name);
+		device = new SimDevice(procRoot, hidePid, forkCost);
+		device.setWifi(DefaultIpAddress);
+		device.setAdbd(StatusAnalyzer.DefaultADBPort);
+		AdbdLocator.setDefault(new AdbdLocator(procRoot));
+		ListenDetector.setDefault(new ListenDetector(procRoot));
+		// Nothing may be carried over from the previous trace
+		StatusAnalyzer.invalidate(StatusAnalyzer.ProbeAll);
+
+		Utils.ProcessRunner processRunner = Utils.processRunner;
+		SimContext context = new SimContext(workDir, device);
+		Utils.processRunner = device;
+		YawAdbService service = new YawAdbService();
+		service.attach(context);
+		service.onCreate();
+
+		Intent startIntent = new Intent();
+		startIntent.putExtra(YawAdbConstants.ComponentNameExtra, 
+			new ComponentName(context.getPackageName(), "com.palmcrust.yawadb.YawAdbProvider"));
+		startIntent.putExtra(YawAdbConstants.OnClickIntentExtra, 
+			PendingIntent.getBroadcast(context, 0, new Intent(YawAdbConstants.PopupAction), 0));
+
+		MessageQueue.setDispatchListener(this);
+		AppWidgetManager.setUpdateListener(this);
+		lastImageResId = 0;
+		startTime = SystemClock.uptimeMillis();
+		firstPaint = firstStatusPaint = -1;
+		service.onStartCommand(startIntent, 0, 1);
+		MessageQueue.runUntil(SystemClock.uptimeMillis() + StartupTime);
+
+		resetCounters();
+		long origin = SystemClock.uptimeMillis();
+		for (SimTrace.Event event : trace.events) {
+			MessageQueue.runUntil(origin + event.time);
+			apply(context, event);
+		}
+		MessageQueue.runUntil(origin + trace.getDuration() + SettleTime);
+
+		service.onDestroy();
+		Looper.getMainLooper().quit();
+		MessageQueue.setDispatchListener(null);
+		AppWidgetManager.setUpdateListener(null);
+		Utils.processRunner = processRunner;
+		deleteTree(procRoot);
+
+		report(trace, context.getActivityStarts());
+	}
+
+	private void apply(SimContext context, SimTrace.Event event) throws IOException {
+		if (event.name.equals("wifi")) {
+			requireArg(event);
+			device.setWifi(event.arg.equals("off") ? null : event.arg);
+			return;
+		}
+
+		if (event.name.equals("adbd")) {
+			requireArg(event);
+			device.setAdbd(event.arg.equals("stop") ? SimDevice.AdbdStopped :
+				event.arg.equals("usb") ? SimDevice.AdbdUsb : Integer.parseInt(event.arg));
+			return;
+		}
+
+		for (String[] pair : broadcastActions)
+			if (pair[0].equals(event.name)) {
+				broadcasts++;
+				context.sendBroadcast(new Intent(pair[1]));
+				// The service doesn't analyze on screen off
+				if (!pair[1].equals(Intent.ACTION_SCREEN_OFF))
+					waiting.add(Long.valueOf(SystemClock.uptimeMillis()));
+				return;
+			}
+
+		Object busEvent = createBusEvent(event.name);
+		if (busEvent == null) throw new IllegalArgumentException("Unknown event " + event.name);
+		// Counted with the broadcasts, they were ones
+		broadcasts++;
+		EventBus.getDefault().post(busEvent);
+		waiting.add(Long.valueOf(SystemClock.uptimeMillis()));
+	}
+
+	// Events of our own components, see YawAdbEvents. A mode change 
+	// comes without the verified state.
+	private static Object createBusEvent(String name) {
+		if (name.equals("refresh")) return new YawAdbEvents.RefreshStatus();
+		if (name.equals("provider-refresh")) return new YawAdbEvents.ProviderRefresh();
+		if (name.equals("mode-changed")) return new YawAdbEvents.AdbModeChanged(false, null);
+		return null;
+	}
+
+	private static void requireArg(SimTrace.Event event) {
+		if (event.arg == null) throw new IllegalArgumentException("No argument for " + event.name);
+	}
+
+	// The handlers are private to the service, we recognise them by name
+	public void dispatched(Message msg, long start, long end) {
+		if (msg.getCallback() != null) return;
+		String handlerName = msg.getTarget().getClass().getSimpleName();
+
+		if (handlerName.equals("StatusUpdateHandler")) {
+			analyses++;
+			for (Iterator<Long> it = waiting.iterator(); it.hasNext(); ) {
+				Long time = it.next();
+				if (time.longValue() > start) continue;
+				analysed.add(time);
+				it.remove();
+			}
+		} else
+		if (handlerName.equals("WidgetServiceMessageHandler")) {
+			if (firstStatusPaint < 0) firstStatusPaint = end - startTime;
+			appearanceUpdates++;
+			for (Long time : analysed)
+				latencies.add(Long.valueOf(end - time.longValue()));
+			analysed.clear();
+		}
+	}
+
+	public void updated(ComponentName provider, RemoteViews views) {
+		pushes++;
+		int imageResId = views.getImageViewResource(R.id.modeImg);
+		if (imageResId != 0 && firstPaint < 0)
+			firstPaint = SystemClock.uptimeMillis() - startTime;
+		if (imageResId != lastImageResId) {
+			imagePushes++;
+			lastImageResId = imageResId;
+		}
+	}
+
+	private void resetCounters() {
+		device.resetCounters();
+		broadcasts = analyses = appearanceUpdates = pushes = imagePushes = 0;
+		waiting.clear();
+		analysed.clear();
+		latencies.clear();
+	}
+
+	private void report(SimTrace trace, int activityStarts) {
+		String latency = "-";
+		if (!latencies.isEmpty()) {
+			Collections.sort(latencies);
+			long sum = 0;
+			for (Long value : latencies) sum += value.longValue();
+			latency = String.format("%d/%d/%d/%d", 
+				Long.valueOf(sum / latencies.size()), percentile(50), percentile(95), 
+				latencies.get(latencies.size() - 1));
+		}
+		int unserved = waiting.size() + analysed.size();
+		if (unserved > 0) latency += " (" + unserved + " never served)";
+
+		// The first paint is the analysed status, if nothing was stored
+		String start = ((firstPaint >= 0 && firstPaint < firstStatusPaint) ? firstPaint : "-") + 
+			"/" + ((firstStatusPaint >= 0) ? firstStatusPaint : "-");
+
+		System.out.printf("%-14s %6d %7d %8d %6d %7d %6d %9s   %s%n", trace.name,
+			Integer.valueOf(trace.events.size()), Integer.valueOf(broadcasts), 
+			Integer.valueOf(analyses), Integer.valueOf(device.getForkCount()), 
+			Integer.valueOf(pushes), Integer.valueOf(imagePushes), start, latency);
+
+		if (verbose) {
+			StringBuilder sb = new StringBuilder();
+			for (Map.Entry<String, Integer> entry : device.getForks().entrySet())
+				sb.append(' ').append(entry.getKey()).append(':').append(entry.getValue());
+			System.out.printf("    forks:%s  appearance updates: %d  popups: %d  duration: %d ms%n", 
+				(sb.length() > 0) ? sb : " none", Integer.valueOf(appearanceUpdates), 
+				Integer.valueOf(activityStarts), Long.valueOf(trace.getDuration()));
+			System.out.println("    latencies: " + Arrays.toString(latencies.toArray()));
+		}
+	}
+
+	private Long percentile(int p) {
+		int index = (latencies.size() * p + 99) / 100 - 1;
+		return latencies.get(Math.max(index, 0));
+	}
+
+	private static void deleteTree(File file) {
+		File[] children = file.listFiles();
+		if (children != null)
+			for (File child : children) deleteTree(child);
+		file.delete();
+	}
+}
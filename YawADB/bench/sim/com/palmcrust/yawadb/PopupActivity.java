@@ -0,0 +1,24 @@
+/*
+   PopupActivity. Stands in for the popup in the simulator.
+   Copyright (C) 2013 Michael Glickman (Australia) <palmcrust@gmail.com>
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>
+*/
+
+package com.palmcrust.yawadb;
+
+// Stands in for the real activity, which the simulator doesn't start.
+// SimContext only counts the requests.
+public class PopupActivity {
+}
@@ -0,0 +1,126 @@
+/*
+   SimContext. Application context of the simulator.
+   Copyright (C) 2013 Michael Glickman (Australia) <palmcrust@gmail.com>
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>
+*/
+
+package com.palmcrust.yawadb;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.res.Resources;
+import android.os.Handler;
+import android.os.Looper;
+
+// Application context. Broadcasts are delivered through the main looper,
+// like on the device, activities are only counted.
+class SimContext extends Context {
+	private final File filesDir;
+	private final SimDevice device;
+	private final Resources resources = new Resources();
+	private final Handler mainHandler = new Handler(Looper.getMainLooper());
+	private final List<BroadcastReceiver> receivers = new ArrayList<BroadcastReceiver>();
+	private final List<IntentFilter> filters = new ArrayList<IntentFilter>();
+	private int activityStarts = 0;
+
+	SimContext(File filesDir, SimDevice device) {
+		this.filesDir = filesDir;
+		this.device = device;
+	}
+
+	int getActivityStarts() {
+		return activityStarts;
+	}
+
+	@Override
+	public Context getApplicationContext() {
+		return this;
+	}
+
+	@Override
+	public String getPackageName() {
+		return "com.palmcrust.yawadb";
+	}
+
+	@Override
+	public Object getSystemService(String name) {
+		return name.equals(WIFI_SERVICE) ? device.wifiManager : null;
+	}
+
+	@Override
+	public Resources getResources() {
+		return resources;
+	}
+
+	@Override
+	public synchronized Intent registerReceiver(BroadcastReceiver receiver, IntentFilter filter) {
+		receivers.add(receiver);
+		filters.add(filter);
+		return null;
+	}
+
+	@Override
+	public synchronized void unregisterReceiver(BroadcastReceiver receiver) {
+		int index = receivers.indexOf(receiver);
+		if (index < 0) throw new IllegalArgumentException("Receiver not registered");
+		receivers.remove(index);
+		filters.remove(index);
+	}
+
+	@Override
+	public void sendBroadcast(final Intent intent) {
+		mainHandler.post(new Runnable() {
+			public void run() {
+				List<BroadcastReceiver> targets = new ArrayList<BroadcastReceiver>();
+				synchronized(SimContext.this) {
+					for (int i = 0; i < receivers.size(); i++)
+						if (filters.get(i).hasAction(intent.getAction()))
+							targets.add(receivers.get(i));
+				}
+				for (BroadcastReceiver receiver : targets)
+					receiver.onReceive(SimContext.this, intent);
+			}
+		});
+	}
+
+	@Override
+	public synchronized void startActivity(Intent intent) {
+		activityStarts++;
+	}
+
+	@Override
+	public File getFileStreamPath(String name) {
+		return new File(filesDir, name);
+	}
+
+	@Override
+	public FileInputStream openFileInput(String name) throws FileNotFoundException {
+		return new FileInputStream(getFileStreamPath(name));
+	}
+
+	@Override
+	public FileOutputStream openFileOutput(String name, int mode) throws FileNotFoundException {
+		return new FileOutputStream(getFileStreamPath(name));
+	}
+}
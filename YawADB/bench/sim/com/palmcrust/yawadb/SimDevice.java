@@ -0,0 +1,150 @@
+/*
+   SimDevice. Device state of the simulator.
+   Copyright (C) 2013 Michael Glickman (Australia) <palmcrust@gmail.com>
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>
+*/
+
+package com.palmcrust.yawadb;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
+
+import android.net.wifi.WifiInfo;
+import android.net.wifi.WifiManager;
+import android.os.MessageQueue;
+
+// Device state the application looks at: Wi-Fi address, adbd and its 
+// port. Nothing is forked, the commands are answered from the state and
+// each of them costs forkCost ms of virtual time. procfs is a directory
+// tree kept in line with the state.
+class SimDevice implements Utils.ProcessRunner {
+	static final int AdbdUsb = 0;
+	static final int AdbdStopped = -1;
+
+	private static final int InitPid = 1;
+	private static final int AdbdPid = 157;
+	private static final String TcpHeader = 
+		"  sl  local_address rem_address   st tx_queue rx_queue tr tm->when retrnsmt   uid  timeout inode\n";
+
+	final WifiManager wifiManager = new WifiManager();
+
+	private final File procRoot;
+	private final boolean hidePid;
+	private final int forkCost;
+	private int adbdPort = AdbdStopped;
+	private final Map<String, Integer> forks = new TreeMap<String, Integer>();
+	private int forkCount = 0;
+
+	// hidePid: procfs doesn't show other processes, 'ps' has to be used
+	SimDevice(File procRoot, boolean hidePid, int forkCost) throws IOException {
+		this.procRoot = procRoot;
+		this.hidePid = hidePid;
+		this.forkCost = forkCost;
+		if (!hidePid)
+			writeFile(InitPid + "/cmdline", "/init\0");
+		setAdbd(AdbdStopped);
+	}
+
+	// null: Wi-Fi is off
+	void setWifi(String ipAddress) {
+		wifiManager.setConnectionInfo((ipAddress == null) ? null : new WifiInfo(parseIpAddress(ipAddress)));
+	}
+
+	// port: TCP port, AdbdUsb or AdbdStopped
+	synchronized void setAdbd(int port) throws IOException {
+		adbdPort = port;
+		File cmdline = new File(procRoot, AdbdPid + "/cmdline");
+		if (port == AdbdStopped || hidePid) {
+			cmdline.delete();
+			cmdline.getParentFile().delete();
+		} else
+			writeFile(AdbdPid + "/cmdline", "/sbin/adbd\0--root_seclabel=u:r:su:s0\0");
+
+		StringBuilder sb = new StringBuilder(TcpHeader);
+		if (port > 0)
+			sb.append(String.format("   0: 00000000:%04X 00000000:0000 0A 00000000:00000000 00:00000000 00000000  2000        0 8310 1 0000000000000000 100 0 0 10 0\n", 
+				Integer.valueOf(port)));
+		writeFile("net/tcp", sb.toString());
+	}
+
+	synchronized int getForkCount() {
+		return forkCount;
+	}
+
+	synchronized Map<String, Integer> getForks() {
+		return new TreeMap<String, Integer>(forks);
+	}
+
+	synchronized void resetCounters() {
+		forks.clear();
+		forkCount = 0;
+	}
+
+	public Process start(boolean mergeErrors, String... cmd) throws IOException {
+		String output;
+		int exitCode = 0;
+		synchronized(this) {
+			Integer count = forks.get(cmd[0]);
+			forks.put(cmd[0], Integer.valueOf((count == null) ? 1 : count.intValue() + 1));
+			forkCount++;
+
+			if (cmd[0].equals("getprop")) 
+				output = (cmd.length > 1) ? getProp(cmd[1]) + "\n" :
+					"[ro.product.model]: [Simulated]\n[service.adb.tcp.port]: [" + getProp("service.adb.tcp.port") + "]\n";
+			else
+			if (cmd[0].equals("ps")) {
+				output = "USER     PID   PPID  VSIZE  RSS     WCHAN    PC         NAME\n";
+				if (adbdPort != AdbdStopped)
+					output += "shell     " + AdbdPid + "   1     4564   216   ffffffff 00000000 S /sbin/adbd\n";
+			} else {
+				// e.g. 'su', toggling is not simulated
+				output = cmd[0] + ": not found\n";
+				exitCode = 127;
+			}
+		}
+		MessageQueue.advance(forkCost);
+		return new SimProcess(output, exitCode);
+	}
+
+	private String getProp(String name) {
+		if (name.equals("service.adb.tcp.port") && adbdPort != AdbdStopped)
+			return Integer.toString(adbdPort > 0 ? adbdPort : -1);
+		return "";
+	}
+
+	private void writeFile(String path, String content) throws IOException {
+		File file = new File(procRoot, path);
+		file.getParentFile().mkdirs();
+		FileOutputStream os = new FileOutputStream(file);
+		try {
+			os.write(content.getBytes());
+		} finally {
+			os.close();
+		}
+	}
+
+	// WifiInfo keeps the lowest byte first
+	private static int parseIpAddress(String ipAddress) {
+		String[] parts = ipAddress.split("\\.");
+		if (parts.length != 4) throw new IllegalArgumentException("Bad IP address " + ipAddress);
+		int value = 0;
+		for (int i = 3; i >= 0; i--)
+			value = (value << 8) | (Integer.parseInt(parts[i]) & 0xff);
+		return value;
+	}
+}
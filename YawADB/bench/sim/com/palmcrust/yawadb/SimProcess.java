@@ -0,0 +1,67 @@
+/*
+   SimProcess. Commands run by the simulator.
+   Copyright (C) 2013 Michael Glickman (Australia) <palmcrust@gmail.com>
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>
+*/
+
+package com.palmcrust.yawadb;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+// Finished process with canned output
+class SimProcess extends Process {
+	private final byte[] output;
+	private final int exitCode;
+
+	SimProcess(String output, int exitCode) {
+		this.output = output.getBytes();
+		this.exitCode = exitCode;
+	}
+
+	@Override
+	public OutputStream getOutputStream() {
+		return new OutputStream() {
+			@Override
+			public void write(int b) {
+			}
+		};
+	}
+
+	@Override
+	public InputStream getInputStream() {
+		return new ByteArrayInputStream(output);
+	}
+
+	@Override
+	public InputStream getErrorStream() {
+		return new ByteArrayInputStream(new byte[0]);
+	}
+
+	@Override
+	public int waitFor() {
+		return exitCode;
+	}
+
+	@Override
+	public int exitValue() {
+		return exitCode;
+	}
+
+	@Override
+	public void destroy() {
+	}
+}
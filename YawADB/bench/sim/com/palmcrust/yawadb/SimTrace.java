@@ -0,0 +1,210 @@
+/*
+   SimTrace. Event traces of the simulator.
+   Copyright (C) 2013 Michael Glickman (Australia) <palmcrust@gmail.com>
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>
+*/
+
+package com.palmcrust.yawadb;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+// Sequence of events, one per line in a trace file: time (ms from the 
+// start of the trace), event name and its argument if any. '#' starts
+// a comment.
+//   Device state:  wifi <address>|off,  adbd <port>|usb|stop
+//   Broadcasts:    connectivity, airplane, screen-on, screen-off, popup
+//   Bus events:    refresh, provider-refresh, mode-changed
+class SimTrace {
+	static final class Event {
+		final long time;
+		final String name;
+		final String arg;
+
+		Event(long time, String name, String arg) {
+			this.time = time;
+			this.name = name;
+			this.arg = arg;
+		}
+	}
+
+	final String name;
+	final List<Event> events = new ArrayList<Event>();
+
+	SimTrace(String name) {
+		this.name = name;
+	}
+
+	void add(long time, String name) {
+		add(time, name, null);
+	}
+
+	void add(long time, String name, String arg) {
+		events.add(new Event(time, name, arg));
+	}
+
+	long getDuration() {
+		return events.isEmpty() ? 0 : events.get(events.size() - 1).time;
+	}
+
+	// Events added out of order are sorted, keeping the order of those at the same time
+	void sort() {
+		Collections.sort(events, new Comparator<Event>() {
+			public int compare(Event e1, Event e2) {
+				return (e1.time < e2.time) ? -1 : (e1.time > e2.time) ? 1 : 0;
+			}
+		});
+	}
+
+	static SimTrace load(File file) throws IOException {
+		String traceName = file.getName();
+		int dot = traceName.lastIndexOf('.');
+		SimTrace trace = new SimTrace((dot > 0) ? traceName.substring(0, dot) : traceName);
+
+		BufferedReader rd = new BufferedReader(new FileReader(file));
+		try {
+			String line;
+			int lineNo = 0;
+			while ((line = rd.readLine()) != null) {
+				lineNo++;
+				int hash = line.indexOf('#');
+				if (hash >= 0) line = line.substring(0, hash);
+				line = line.trim();
+				if (line.length() == 0) continue;
+
+				String[] tokens = line.split("\\s+");
+				if (tokens.length < 2 || tokens.length > 3)
+					throw new IOException(file + ":" + lineNo + ": expected <time> <event> [<arg>]");
+				try {
+					trace.add(Long.parseLong(tokens[0]), tokens[1], (tokens.length > 2) ? tokens[2] : null);
+				} catch (NumberFormatException ex) {
+					throw new IOException(file + ":" + lineNo + ": bad time " + tokens[0]);
+				}
+			}
+		} finally {
+			rd.close();
+		}
+		trace.sort();
+		return trace;
+	}
+
+	//=========================================================================
+	// Synthetic traces. Same seed, same trace.
+
+	static List<SimTrace> createSynthetic(long seed) {
+		List<SimTrace> traces = new ArrayList<SimTrace>();
+		traces.add(steady());
+		traces.add(roaming(new Random(seed)));
+		traces.add(airplane(new Random(seed)));
+		traces.add(screen(new Random(seed)));
+		traces.add(modeToggle(new Random(seed)));
+		return traces;
+	}
+
+	// Lone events far apart, the baseline: nothing to coalesce
+	static SimTrace steady() {
+		SimTrace trace = new SimTrace("steady");
+		for (int i = 0; i < 10; i++)
+			trace.add(1000 + i * 3000, "connectivity");
+		return trace;
+	}
+
+	// Walking between access points. Each hand-over is a burst of
+	// CONNECTIVITY_ACTION, sometimes with the screen going on.
+	static SimTrace roaming(Random rnd) {
+		SimTrace trace = new SimTrace("roaming");
+		long t = 1000;
+		for (int ap = 1; ap <= 6; ap++) {
+			trace.add(t, "wifi", "off");
+			t = addBurst(trace, rnd, t, "connectivity", 2 + rnd.nextInt(3));
+			if (rnd.nextInt(3) == 0) trace.add(t + rnd.nextInt(100), "screen-on");
+
+			t += 300 + rnd.nextInt(700);
+			trace.add(t, "wifi", "10.0." + ap + "." + (2 + rnd.nextInt(250)));
+			t = addBurst(trace, rnd, t, "connectivity", 2 + rnd.nextInt(3));
+			t += 2000 + rnd.nextInt(2000);
+		}
+		trace.sort();
+		return trace;
+	}
+
+	static SimTrace airplane(Random rnd) {
+		SimTrace trace = new SimTrace("airplane");
+		long t = 1000;
+		for (int i = 0; i < 3; i++) {
+			trace.add(t, "wifi", "off");
+			trace.add(t, "airplane");
+			addBurst(trace, rnd, t, "connectivity", 2);
+
+			t += 3000 + rnd.nextInt(1000);
+			trace.add(t, "airplane");
+			t += 500 + rnd.nextInt(1000);
+			trace.add(t, "wifi", "192.168.1." + (100 + i));
+			t = addBurst(trace, rnd, t, "connectivity", 3);
+			t += 4000;
+		}
+		trace.sort();
+		return trace;
+	}
+
+	// Screen flicking on and off, e.g. checking the time
+	static SimTrace screen(Random rnd) {
+		SimTrace trace = new SimTrace("screen");
+		long t = 1000;
+		for (int i = 0; i < 20; i++) {
+			trace.add(t, "screen-off");
+			t += 400 + rnd.nextInt(800);
+			trace.add(t, "screen-on");
+			t += 700 + rnd.nextInt(300);
+		}
+		return trace;
+	}
+
+	// Switching between wireless and USB adb
+	static SimTrace modeToggle(Random rnd) {
+		SimTrace trace = new SimTrace("mode-toggle");
+		long t = 1000;
+		for (int i = 0; i < 5; i++) {
+			trace.add(t, "adbd", "stop");
+			t += 300 + rnd.nextInt(200);
+			trace.add(t, "adbd", "usb");
+			trace.add(t, "mode-changed");
+			t += 3000;
+			trace.add(t, "adbd", "stop");
+			t += 300 + rnd.nextInt(200);
+			trace.add(t, "adbd", Integer.toString(StatusAnalyzer.DefaultADBPort));
+			trace.add(t, "mode-changed");
+			t += 3000;
+		}
+		return trace;
+	}
+
+	// Returns the time of the last event in the burst
+	private static long addBurst(SimTrace trace, Random rnd, long t, String name, int count) {
+		trace.add(t, name);
+		for (int i = 1; i < count; i++) {
+			t += 20 + rnd.nextInt(180);
+			trace.add(t, name);
+		}
+		return t;
+	}
+}
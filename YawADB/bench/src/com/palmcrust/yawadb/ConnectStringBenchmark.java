@@ -0,0 +1,58 @@
+/*
+   ConnectStringBenchmark. Measures building the adb connect string.
+   Copyright (C) 2013 Michael Glickman (Australia) <palmcrust@gmail.com>
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>
+*/
+
+package com.palmcrust.yawadb;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ConnectStringBenchmark {
+	private StatusSnapshot defaultPort;
+	private StatusSnapshot customPort;
+
+	@Setup
+	public void setup() {
+		defaultPort = createSnapshot(StatusAnalyzer.DefaultADBPort);
+		customPort = createSnapshot(5556);
+	}
+
+	private static StatusSnapshot createSnapshot(int port) {
+		return new StatusSnapshot(StatusAnalyzer.Status.UP, "192.168.1.100", port, 
+			1234, false, 0);
+	}
+
+	@Benchmark
+	public String defaultPort() {
+		return defaultPort.evaluateADBConnectString();
+	}
+
+	@Benchmark
+	public String customPort() {
+		return customPort.evaluateADBConnectString();
+	}
+}
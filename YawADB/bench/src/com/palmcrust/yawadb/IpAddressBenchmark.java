@@ -0,0 +1,48 @@
+/*
+   IpAddressBenchmark. Measures formatting the Wi-Fi address.
+   Copyright (C) 2013 Michael Glickman (Australia) <palmcrust@gmail.com>
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>
+*/
+
+package com.palmcrust.yawadb;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+// The formatter stub has the platform implementation, so the difference
+// between the two is the cost of the reflective lookup.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class IpAddressBenchmark {
+	// 192.168.1.100 as WifiInfo reports it, lowest byte first
+	private int ipAddress = 0x6401A8C0;
+
+	@Benchmark
+	public String reflectiveFormatter() {
+		return StatusAnalyzer.ipAddrToString(ipAddress);
+	}
+
+	@Benchmark
+	public String fallbackFormatter() {
+		return StatusAnalyzer.formatIpAddress(ipAddress);
+	}
+}
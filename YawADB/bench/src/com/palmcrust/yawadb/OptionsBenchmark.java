@@ -0,0 +1,237 @@
+/*
+   OptionsBenchmark. Measures loading and saving the options.
+   Copyright (C) 2013 Michael Glickman (Australia) <palmcrust@gmail.com>
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>
+*/
+
+package com.palmcrust.yawadb;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.res.Resources;
+
+// The options round trip through YawAdbOptions itself, on a context
+// keeping its files in a temporary directory (R is generated from the
+// resources, see build.xml). The version 1.2 GZIP + serialization format
+// it replaced is no longer in the application, so it is reproduced here.
+// Run with "-prof gc" to compare allocations as well.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class OptionsBenchmark {
+	private static final byte[] legacySignature = {'Y', 'A'};
+
+	private Map<String, Object> values;
+	private byte[] encoded;
+	private byte[] legacyEncoded;
+	private File dir;
+	// Apart from the options file, not to spoil it
+	private File legacyFile;
+	private Context context;
+	private YawAdbOptions options;
+
+	@Setup
+	public void setup() throws IOException {
+		dir = File.createTempFile("yawadb", "");
+		dir.delete();
+		dir.mkdir();
+		legacyFile = new File(dir, "options-1.2.dat");
+		context = new FilesContext(dir);
+
+		// Defaults, saved so that the file exists
+		options = new YawAdbOptions(context);
+		options.savePreferences();
+
+		values = new LinkedHashMap<String, Object>();
+		for (YawAdbOptions.Option opt : options.allOptions)
+			values.put(opt.getKey(), opt.getValue());
+		encoded = OptionsCodec.encode(values);
+		legacyEncoded = encodeLegacy(values);
+	}
+
+	@TearDown
+	public void tearDown() {
+		for (File f : dir.listFiles())
+			f.delete();
+		dir.delete();
+	}
+
+	@Benchmark
+	public byte[] encode() throws IOException {
+		return OptionsCodec.encode(values);
+	}
+
+	@Benchmark
+	public Map<String, Object> decode() throws IOException {
+		return OptionsCodec.decode(encoded, encoded.length);
+	}
+
+	@Benchmark
+	public byte[] encodeLegacy() throws IOException {
+		return encodeLegacy(values);
+	}
+
+	@Benchmark
+	public Map<String, Object> decodeLegacy() throws IOException {
+		return OptionsCodec.decodeLegacy(legacyEncoded, legacyEncoded.length);
+	}
+
+	@Benchmark
+	public YawAdbOptions saveLoad() {
+		options.savePreferences();
+		return new YawAdbOptions(context);
+	}
+
+	// What every component does to read an option: the file is only stat'ed
+	@Benchmark
+	public YawAdbOptions getShared() {
+		return YawAdbOptions.getShared(context);
+	}
+
+	// Mirrors version 1.2 savePreferences and loadPreferences
+	@Benchmark
+	public Map<String, Object> saveLoadLegacy() throws IOException, ClassNotFoundException {
+		ObjectOutputStream oos = new ObjectOutputStream(
+				new GZIPOutputStream(new FileOutputStream(legacyFile)));
+		try {
+			writeLegacy(oos, values);
+		} finally {
+			oos.close();
+		}
+
+		Map<String, Object> loaded = new HashMap<String, Object>();
+		ObjectInputStream ois = new ObjectInputStream(
+				new GZIPInputStream(new FileInputStream(legacyFile)));
+		try {
+			byte[] sgn = new byte[2];
+			ois.readFully(sgn);
+			ois.readUnsignedShort();
+			for (;;)
+				loaded.put(ois.readUTF(), ois.readObject());
+		} catch (EOFException ex) {
+		} finally {
+			ois.close();
+		}
+		return loaded;
+	}
+
+	private static byte[] encodeLegacy(Map<String, Object> values) throws IOException {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		ObjectOutputStream oos = new ObjectOutputStream(new GZIPOutputStream(bos));
+		writeLegacy(oos, values);
+		oos.close();
+		return bos.toByteArray();
+	}
+
+	private static void writeLegacy(ObjectOutputStream oos, Map<String, Object> values) throws IOException {
+		oos.write(legacySignature);
+		oos.writeShort(0);
+		for (Map.Entry<String, Object> entry : values.entrySet()) {
+			oos.writeUTF(entry.getKey());
+			oos.writeObject(entry.getValue());
+		}
+	}
+
+	// Just the files, which YawAdbOptions needs
+	private static class FilesContext extends Context {
+		private final File filesDir;
+
+		FilesContext(File filesDir) {
+			this.filesDir = filesDir;
+		}
+
+		@Override
+		public Context getApplicationContext() {
+			return this;
+		}
+
+		@Override
+		public String getPackageName() {
+			return "com.palmcrust.yawadb";
+		}
+
+		@Override
+		public Object getSystemService(String name) {
+			return null;
+		}
+
+		@Override
+		public Resources getResources() {
+			return null;
+		}
+
+		@Override
+		public Intent registerReceiver(BroadcastReceiver receiver, IntentFilter filter) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void unregisterReceiver(BroadcastReceiver receiver) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void sendBroadcast(Intent intent) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void startActivity(Intent intent) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public File getFileStreamPath(String name) {
+			return new File(filesDir, name);
+		}
+
+		@Override
+		public FileInputStream openFileInput(String name) throws FileNotFoundException {
+			return new FileInputStream(getFileStreamPath(name));
+		}
+
+		@Override
+		public FileOutputStream openFileOutput(String name, int mode) throws FileNotFoundException {
+			return new FileOutputStream(getFileStreamPath(name));
+		}
+	}
+}
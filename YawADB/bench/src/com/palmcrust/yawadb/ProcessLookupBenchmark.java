@@ -0,0 +1,123 @@
+/*
+   ProcessLookupBenchmark. Measures looking for adbd.
+   Copyright (C) 2013 Michael Glickman (Australia) <palmcrust@gmail.com>
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>
+*/
+
+package com.palmcrust.yawadb;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+// Parsing of 'ps' output as Utils.getAdbdPid did it, against AdbdLocator
+// on a fake procfs tree. Forking 'ps' itself is left out, it depends on
+// the device far more than on our code.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ProcessLookupBenchmark {
+	private static final int ProcessCount = 300;
+	private static final int AdbdPid = 157;
+
+	private static final byte[] psOutput = (
+		"USER     PID   PPID  VSIZE  RSS     WCHAN    PC         NAME\n" +
+		"shell     157   1     4564   216   ffffffff 00000000 S /sbin/adbd\n").getBytes();
+
+	private File procRoot;
+	private AdbdLocator warmLocator;
+	private String relativeExec;
+	private String absoluteExec;
+
+	@Setup
+	public void setup() throws IOException {
+		procRoot = File.createTempFile("yawadb-proc", "");
+		procRoot.delete();
+		procRoot.mkdir();
+		for (int pid = 1; pid <= ProcessCount; pid++) {
+			String cmdline = (pid == AdbdPid) ? "/sbin/adbd\0" : "/system/bin/process" + pid + "\0--flag\0";
+			File pidDir = new File(procRoot, Integer.toString(pid));
+			pidDir.mkdir();
+			FileOutputStream os = new FileOutputStream(new File(pidDir, "cmdline"));
+			os.write(cmdline.getBytes());
+			os.close();
+		}
+		warmLocator = new AdbdLocator(procRoot);
+		warmLocator.findPid();
+
+		relativeExec = "sh";
+		absoluteExec = new File("/bin/sh").exists() ? "/bin/sh" : "/system/bin/sh";
+	}
+
+	@TearDown
+	public void tearDown() {
+		for (File pidDir : procRoot.listFiles()) {
+			new File(pidDir, "cmdline").delete();
+			pidDir.delete();
+		}
+		procRoot.delete();
+	}
+
+	@Benchmark
+	public int psOutputParsing() throws IOException {
+		BufferedReader rd = new BufferedReader(
+				new InputStreamReader(new ByteArrayInputStream(psOutput)));
+		try {
+			String line;
+			while((line=rd.readLine())!=null) {
+				int pid = Utils.parsePsLine(line);
+				if (pid >= 0) return pid;
+			}
+			return -1;
+		} finally {
+			rd.close();
+		}
+	}
+
+	// Usual case, the pid found last time is still adbd
+	@Benchmark
+	public int procfsCachedPid() {
+		return warmLocator.findPid();
+	}
+
+	// First lookup, or adbd has been restarted
+	@Benchmark
+	public int procfsFullScan() {
+		return new AdbdLocator(procRoot).findPid();
+	}
+
+	@Benchmark
+	public boolean validateRelativeExecPath() {
+		return Utils.validateExecPath(relativeExec);
+	}
+
+	@Benchmark
+	public boolean validateAbsoluteExecPath() {
+		return Utils.validateExecPath(absoluteExec);
+	}
+}
@@ -0,0 +1,22 @@
+package android.app;
+
+import android.content.Context;
+import android.content.Intent;
+import android.os.Parcelable;
+
+// Host stub
+public final class PendingIntent implements Parcelable {
+	private final Intent intent;
+
+	private PendingIntent(Intent intent) {
+		this.intent = intent;
+	}
+
+	public static PendingIntent getBroadcast(Context context, int requestCode, Intent intent, int flags) {
+		return new PendingIntent(intent);
+	}
+
+	public Intent getIntent() {
+		return intent;
+	}
+}
@@ -0,0 +1,44 @@
+package android.app;
+
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+
+import android.content.Context;
+import android.content.ContextWrapper;
+import android.content.Intent;
+import android.os.IBinder;
+
+// Host stub. The host tool creates the service and attaches a context.
+public abstract class Service extends ContextWrapper {
+	public static final int START_STICKY = 1;
+
+	public Service() {
+		super(null);
+	}
+
+	public final void attach(Context base) {
+		attachBaseContext(base);
+	}
+
+	public void onCreate() {
+	}
+
+	public void onStart(Intent intent, int startId) {
+	}
+
+	public int onStartCommand(Intent intent, int flags, int startId) {
+		onStart(intent, startId);
+		return START_STICKY;
+	}
+
+	public void onDestroy() {
+	}
+
+	public abstract IBinder onBind(Intent intent);
+
+	protected void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+	}
+
+	public final void stopSelf() {
+	}
+}
@@ -0,0 +1,28 @@
+package android.appwidget;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.widget.RemoteViews;
+
+// Host stub. Widget updates go to a listener instead of the launcher.
+public class AppWidgetManager {
+	public static interface UpdateListener {
+		void updated(ComponentName provider, RemoteViews views);
+	}
+
+	private static final AppWidgetManager instance = new AppWidgetManager();
+	private static volatile UpdateListener listener = null;
+
+	public static AppWidgetManager getInstance(Context context) {
+		return instance;
+	}
+
+	public static void setUpdateListener(UpdateListener listener) {
+		AppWidgetManager.listener = listener;
+	}
+
+	public void updateAppWidget(ComponentName provider, RemoteViews views) {
+		UpdateListener ul = listener;
+		if (ul != null) ul.updated(provider, views);
+	}
+}
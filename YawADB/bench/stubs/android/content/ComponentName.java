@@ -0,0 +1,26 @@
+package android.content;
+
+import android.os.Parcelable;
+
+// Host stub
+public class ComponentName implements Parcelable {
+	private final String packageName;
+	private final String className;
+
+	public ComponentName(String packageName, String className) {
+		this.packageName = packageName;
+		this.className = className;
+	}
+
+	public ComponentName(Context context, Class<?> cls) {
+		this(context.getPackageName(), cls.getName());
+	}
+
+	public String getPackageName() {
+		return packageName;
+	}
+
+	public String getClassName() {
+		return className;
+	}
+}
@@ -0,0 +1,32 @@
+package android.content;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+
+import android.content.res.Resources;
+
+// Host stub: just what the application sources need
+public abstract class Context {
+	public static final String WIFI_SERVICE = "wifi";
+	public static final int MODE_PRIVATE = 0;
+
+	public abstract Context getApplicationContext();
+	public abstract String getPackageName();
+	public abstract Object getSystemService(String name);
+	public abstract Resources getResources();
+
+	public abstract Intent registerReceiver(BroadcastReceiver receiver, IntentFilter filter);
+	public abstract void unregisterReceiver(BroadcastReceiver receiver);
+	public abstract void sendBroadcast(Intent intent);
+	public abstract void startActivity(Intent intent);
+
+	public abstract File getFileStreamPath(String name);
+	public abstract FileInputStream openFileInput(String name) throws FileNotFoundException;
+	public abstract FileOutputStream openFileOutput(String name, int mode) throws FileNotFoundException;
+
+	public final String getString(int resId) {
+		return getResources().getString(resId);
+	}
+}
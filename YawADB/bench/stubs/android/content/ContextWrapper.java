@@ -0,0 +1,80 @@
+package android.content;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+
+import android.content.res.Resources;
+
+// Host stub
+public class ContextWrapper extends Context {
+	private Context base;
+
+	public ContextWrapper(Context base) {
+		this.base = base;
+	}
+
+	protected void attachBaseContext(Context base) {
+		this.base = base;
+	}
+
+	public Context getBaseContext() {
+		return base;
+	}
+
+	@Override
+	public Context getApplicationContext() {
+		return base.getApplicationContext();
+	}
+
+	@Override
+	public String getPackageName() {
+		return base.getPackageName();
+	}
+
+	@Override
+	public Object getSystemService(String name) {
+		return base.getSystemService(name);
+	}
+
+	@Override
+	public Resources getResources() {
+		return base.getResources();
+	}
+
+	@Override
+	public Intent registerReceiver(BroadcastReceiver receiver, IntentFilter filter) {
+		return base.registerReceiver(receiver, filter);
+	}
+
+	@Override
+	public void unregisterReceiver(BroadcastReceiver receiver) {
+		base.unregisterReceiver(receiver);
+	}
+
+	@Override
+	public void sendBroadcast(Intent intent) {
+		base.sendBroadcast(intent);
+	}
+
+	@Override
+	public void startActivity(Intent intent) {
+		base.startActivity(intent);
+	}
+
+	@Override
+	public File getFileStreamPath(String name) {
+		return base.getFileStreamPath(name);
+	}
+
+	@Override
+	public FileInputStream openFileInput(String name) throws FileNotFoundException {
+		return base.openFileInput(name);
+	}
+
+	@Override
+	public FileOutputStream openFileOutput(String name, int mode) throws FileNotFoundException {
+		return base.openFileOutput(name, mode);
+	}
+}
@@ -0,0 +1,115 @@
+package android.content;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+
+import android.os.Parcelable;
+
+// Host stub: just what the application sources need
+public class Intent implements Parcelable {
+	public static final String ACTION_AIRPLANE_MODE_CHANGED = "android.intent.action.AIRPLANE_MODE";
+	public static final String ACTION_SCREEN_ON = "android.intent.action.SCREEN_ON";
+	public static final String ACTION_SCREEN_OFF = "android.intent.action.SCREEN_OFF";
+	public static final int FLAG_ACTIVITY_NEW_TASK = 0x10000000;
+
+	private String action;
+	private String className;
+	private int flags;
+	private final Map<String, Object> extras = new HashMap<String, Object>();
+
+	public Intent() {
+	}
+
+	public Intent(String action) {
+		this.action = action;
+	}
+
+	public Intent(Context context, Class<?> cls) {
+		className = cls.getName();
+	}
+
+	public String getAction() {
+		return action;
+	}
+
+	public Intent setAction(String action) {
+		this.action = action;
+		return this;
+	}
+
+	public String getClassName() {
+		return className;
+	}
+
+	public Intent addFlags(int flags) {
+		this.flags |= flags;
+		return this;
+	}
+
+	public int getFlags() {
+		return flags;
+	}
+
+	public boolean hasExtra(String name) {
+		return extras.containsKey(name);
+	}
+
+	public Intent putExtra(String name, boolean value) {
+		extras.put(name, Boolean.valueOf(value));
+		return this;
+	}
+
+	public Intent putExtra(String name, int value) {
+		extras.put(name, Integer.valueOf(value));
+		return this;
+	}
+
+	public Intent putExtra(String name, long value) {
+		extras.put(name, Long.valueOf(value));
+		return this;
+	}
+
+	public Intent putExtra(String name, String value) {
+		extras.put(name, value);
+		return this;
+	}
+
+	public Intent putExtra(String name, Parcelable value) {
+		extras.put(name, value);
+		return this;
+	}
+
+	public Intent putExtra(String name, Serializable value) {
+		extras.put(name, value);
+		return this;
+	}
+
+	public boolean getBooleanExtra(String name, boolean defaultValue) {
+		Object value = extras.get(name);
+		return (value instanceof Boolean) ? ((Boolean)value).booleanValue() : defaultValue;
+	}
+
+	public int getIntExtra(String name, int defaultValue) {
+		Object value = extras.get(name);
+		return (value instanceof Integer) ? ((Integer)value).intValue() : defaultValue;
+	}
+
+	public long getLongExtra(String name, long defaultValue) {
+		Object value = extras.get(name);
+		return (value instanceof Long) ? ((Long)value).longValue() : defaultValue;
+	}
+
+	public String getStringExtra(String name) {
+		return (String) extras.get(name);
+	}
+
+	@SuppressWarnings("unchecked")
+	public <T extends Parcelable> T getParcelableExtra(String name) {
+		return (T) extras.get(name);
+	}
+
+	public Serializable getSerializableExtra(String name) {
+		return (Serializable) extras.get(name);
+	}
+}
@@ -0,0 +1,17 @@
+package android.content;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Host stub
+public class IntentFilter {
+	private final List<String> actions = new ArrayList<String>();
+
+	public void addAction(String action) {
+		actions.add(action);
+	}
+
+	public final boolean hasAction(String action) {
+		return actions.contains(action);
+	}
+}
@@ -0,0 +1,43 @@
+package android.content.res;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+// Host stub. There are no resource tables, strings are their ids.
+// Integers come from resources.properties, written by GenerateR.
+public class Resources {
+	private static Properties integers = null;
+
+	public static class NotFoundException extends RuntimeException {
+		public NotFoundException(String name) {
+			super(name);
+		}
+	}
+
+	public String getString(int id) {
+		return "@" + Integer.toHexString(id);
+	}
+
+	public int getInteger(int id) {
+		String value = getIntegers().getProperty(Integer.toHexString(id));
+		if (value == null) throw new NotFoundException("Integer resource @" + Integer.toHexString(id));
+		return Integer.parseInt(value);
+	}
+
+	private static synchronized Properties getIntegers() {
+		if (integers == null) {
+			integers = new Properties();
+			InputStream is = Resources.class.getResourceAsStream("/resources.properties");
+			if (is != null)
+				try {
+					integers.load(is);
+				} catch (IOException ex) {
+					throw new RuntimeException(ex);
+				} finally {
+					try {is.close();} catch (IOException ex) {}
+				}
+		}
+		return integers;
+	}
+}
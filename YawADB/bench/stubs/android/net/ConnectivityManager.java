@@ -0,0 +1,6 @@
+package android.net;
+
+// Host stub: just what the benchmarked sources need
+public class ConnectivityManager {
+	public static final String CONNECTIVITY_ACTION = "android.net.conn.CONNECTIVITY_CHANGE";
+}
@@ -0,0 +1,14 @@
+package android.net.wifi;
+
+// Host stub
+public class WifiInfo {
+	private final int ipAddress;
+
+	public WifiInfo(int ipAddress) {
+		this.ipAddress = ipAddress;
+	}
+
+	public int getIpAddress() {
+		return ipAddress;
+	}
+}
@@ -0,0 +1,15 @@
+package android.net.wifi;
+
+// Host stub. The connection reported is set by the host tool.
+public class WifiManager {
+	private volatile WifiInfo connectionInfo = null;
+
+	public WifiInfo getConnectionInfo() {
+		return connectionInfo;
+	}
+
+	// Not in the platform API
+	public void setConnectionInfo(WifiInfo connectionInfo) {
+		this.connectionInfo = connectionInfo;
+	}
+}
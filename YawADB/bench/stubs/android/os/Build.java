@@ -0,0 +1,12 @@
+package android.os;
+
+// Host stub
+public class Build {
+	public static class VERSION {
+		public static final int SDK_INT = 3;
+	}
+
+	public static class VERSION_CODES {
+		public static final int CUPCAKE = 3;
+	}
+}
@@ -0,0 +1,88 @@
+package android.os;
+
+// Host stub, see MessageQueue
+public class Handler {
+	private final Looper looper;
+
+	public Handler() {
+		this(Looper.myLooper());
+	}
+
+	public Handler(Looper looper) {
+		this.looper = looper;
+	}
+
+	public void handleMessage(Message msg) {
+	}
+
+	public void dispatchMessage(Message msg) {
+		if (msg.callback != null)
+			msg.callback.run();
+		else
+			handleMessage(msg);
+	}
+
+	public final Looper getLooper() {
+		return looper;
+	}
+
+	public final Message obtainMessage(int what) {
+		return Message.obtain(this, what);
+	}
+
+	public final Message obtainMessage(int what, Object obj) {
+		return Message.obtain(this, what, obj);
+	}
+
+	public final Message obtainMessage(int what, int arg1, int arg2) {
+		return Message.obtain(this, what, arg1, arg2);
+	}
+
+	public final Message obtainMessage(int what, int arg1, int arg2, Object obj) {
+		return Message.obtain(this, what, arg1, arg2, obj);
+	}
+
+	public final boolean sendMessage(Message msg) {
+		return sendMessageDelayed(msg, 0);
+	}
+
+	public final boolean sendMessageDelayed(Message msg, long delayMillis) {
+		msg.target = this;
+		MessageQueue.enqueue(msg, SystemClock.uptimeMillis() + Math.max(delayMillis, 0));
+		return true;
+	}
+
+	public final boolean sendEmptyMessage(int what) {
+		return sendMessage(obtainMessage(what));
+	}
+
+	public final boolean sendEmptyMessageDelayed(int what, long delayMillis) {
+		return sendMessageDelayed(obtainMessage(what), delayMillis);
+	}
+
+	public final boolean post(Runnable r) {
+		return postDelayed(r, 0);
+	}
+
+	public final boolean postDelayed(Runnable r, long delayMillis) {
+		Message msg = Message.obtain(this, 0);
+		msg.callback = r;
+		return sendMessageDelayed(msg, delayMillis);
+	}
+
+	public final boolean hasMessages(int what) {
+		return MessageQueue.contains(this, what);
+	}
+
+	public final void removeMessages(int what) {
+		MessageQueue.remove(looper, this, Integer.valueOf(what), null);
+	}
+
+	public final void removeCallbacks(Runnable r) {
+		MessageQueue.remove(looper, this, null, r);
+	}
+
+	public final void removeCallbacksAndMessages(Object token) {
+		MessageQueue.remove(looper, this, null, null);
+	}
+}
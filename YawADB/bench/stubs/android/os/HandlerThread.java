@@ -0,0 +1,24 @@
+package android.os;
+
+// Host stub, see MessageQueue. No thread is actually started, messages 
+// for the looper are dispatched by the driver like all the others.
+public class HandlerThread extends Thread {
+	private final Looper looper = new Looper();
+
+	public HandlerThread(String name) {
+		super(name);
+	}
+
+	@Override
+	public synchronized void start() {
+	}
+
+	public Looper getLooper() {
+		return looper;
+	}
+
+	public boolean quit() {
+		looper.quit();
+		return true;
+	}
+}
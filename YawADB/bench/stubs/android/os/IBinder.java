@@ -0,0 +1,5 @@
+package android.os;
+
+// Host stub
+public interface IBinder {
+}
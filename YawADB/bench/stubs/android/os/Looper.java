@@ -0,0 +1,28 @@
+package android.os;
+
+// Host stub, see MessageQueue. Everything runs on the driver thread,
+// so the main looper is the current one wherever we are.
+public final class Looper {
+	private static final Looper mainLooper = new Looper();
+
+	Looper() {
+	}
+
+	public static Looper getMainLooper() {
+		return mainLooper;
+	}
+
+	public static Looper myLooper() {
+		return mainLooper;
+	}
+
+	public static void prepare() {
+	}
+
+	public static void loop() {
+	}
+
+	public void quit() {
+		MessageQueue.remove(this, null, null, null);
+	}
+}
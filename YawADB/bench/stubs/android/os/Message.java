@@ -0,0 +1,55 @@
+package android.os;
+
+// Host stub, see MessageQueue
+public final class Message {
+	public int what;
+	public int arg1;
+	public int arg2;
+	public Object obj;
+
+	Handler target;
+	Runnable callback;
+	long when;
+
+	public static Message obtain() {
+		return new Message();
+	}
+
+	public static Message obtain(Handler h, int what) {
+		return obtain(h, what, 0, 0, null);
+	}
+
+	public static Message obtain(Handler h, int what, Object obj) {
+		return obtain(h, what, 0, 0, obj);
+	}
+
+	public static Message obtain(Handler h, int what, int arg1, int arg2) {
+		return obtain(h, what, arg1, arg2, null);
+	}
+
+	public static Message obtain(Handler h, int what, int arg1, int arg2, Object obj) {
+		Message msg = new Message();
+		msg.target = h;
+		msg.what = what;
+		msg.arg1 = arg1;
+		msg.arg2 = arg2;
+		msg.obj = obj;
+		return msg;
+	}
+
+	public Handler getTarget() {
+		return target;
+	}
+
+	public Runnable getCallback() {
+		return callback;
+	}
+
+	public long getWhen() {
+		return when;
+	}
+
+	public void sendToTarget() {
+		target.sendMessage(this);
+	}
+}
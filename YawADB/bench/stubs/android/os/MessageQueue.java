@@ -0,0 +1,86 @@
+package android.os;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+// Host stub. Unlike the platform, there is one queue shared by all the
+// loopers and time is virtual: it moves only when the driver (the event
+// simulator) runs the queue or advances the clock. Messages are dispatched 
+// on the driver thread in time order, those due at the same time in the 
+// order they were sent.
+public final class MessageQueue {
+	public static interface DispatchListener {
+		void dispatched(Message msg, long start, long end);
+	}
+
+	private static final List<Message> messages = new ArrayList<Message>();
+	private static volatile long now = 0;
+	private static volatile DispatchListener listener = null;
+
+	static long now() {
+		return now;
+	}
+
+	static synchronized void enqueue(Message msg, long when) {
+		msg.when = when;
+		int pos = messages.size();
+		while (pos > 0 && messages.get(pos - 1).when > when) pos--;
+		messages.add(pos, msg);
+	}
+
+	static synchronized boolean contains(Handler handler, int what) {
+		for (Message msg : messages)
+			if (msg.target == handler && msg.callback == null && msg.what == what)
+				return true;
+		return false;
+	}
+
+	// Removes messages of the handler (all of them if handler is null) 
+	// sent to the looper, matching what or the callback if any is given.
+	static synchronized void remove(Looper looper, Handler handler, Integer what, Runnable callback) {
+		for (Iterator<Message> it = messages.iterator(); it.hasNext(); ) {
+			Message msg = it.next();
+			if (msg.target.getLooper() != looper) continue;
+			if (handler != null && msg.target != handler) continue;
+			if (what != null && (msg.callback != null || msg.what != what.intValue())) continue;
+			if (callback != null && msg.callback != callback) continue;
+			it.remove();
+		}
+	}
+
+	public static void setDispatchListener(DispatchListener listener) {
+		MessageQueue.listener = listener;
+	}
+
+	// Moves the clock on, e.g. for the time spent in a forked process
+	public static synchronized void advance(long millis) {
+		now += millis;
+	}
+
+	// Time the next message is due, -1 if the queue is empty
+	public static synchronized long nextTime() {
+		return messages.isEmpty() ? -1 : messages.get(0).when;
+	}
+
+	// Dispatches all messages due by the time, then sets the clock to it.
+	// A message handled late because of a busy looper doesn't move the 
+	// clock back.
+	public static void runUntil(long time) {
+		for (;;) {
+			Message msg;
+			synchronized(MessageQueue.class) {
+				if (messages.isEmpty() || messages.get(0).when > time) break;
+				msg = messages.remove(0);
+				if (msg.when > now) now = msg.when;
+			}
+			long start = now;
+			msg.target.dispatchMessage(msg);
+			DispatchListener dl = listener;
+			if (dl != null) dl.dispatched(msg, start, now);
+		}
+		synchronized(MessageQueue.class) {
+			if (time > now) now = time;
+		}
+	}
+}
@@ -0,0 +1,34 @@
+package android.os;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Host stub: values are read back in the order written
+public final class Parcel {
+	private final List<Object> values = new ArrayList<Object>();
+	private int position = 0;
+
+	public void writeInt(int value) {
+		values.add(Integer.valueOf(value));
+	}
+
+	public void writeLong(long value) {
+		values.add(Long.valueOf(value));
+	}
+
+	public void writeString(String value) {
+		values.add(value);
+	}
+
+	public int readInt() {
+		return ((Integer) values.get(position++)).intValue();
+	}
+
+	public long readLong() {
+		return ((Long) values.get(position++)).longValue();
+	}
+
+	public String readString() {
+		return (String) values.get(position++);
+	}
+}
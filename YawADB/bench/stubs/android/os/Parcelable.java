@@ -0,0 +1,9 @@
+package android.os;
+
+// Host stub
+public interface Parcelable {
+	public interface Creator<T> {
+		T createFromParcel(Parcel source);
+		T[] newArray(int size);
+	}
+}
@@ -0,0 +1,12 @@
+package android.os;
+
+// Host stub. Virtual time of the message queue, see MessageQueue.
+public final class SystemClock {
+	public static long elapsedRealtime() {
+		return MessageQueue.now();
+	}
+
+	public static long uptimeMillis() {
+		return MessageQueue.now();
+	}
+}
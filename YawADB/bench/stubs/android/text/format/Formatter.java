@@ -0,0 +1,13 @@
+package android.text.format;
+
+// Host stub. Same implementation as the platform one, so that the
+// reflective path of StatusAnalyzer.ipAddrToString can be measured.
+public final class Formatter {
+	public static String formatIpAddress(int ipv4Address) {
+		return String.format("%d.%d.%d.%d",
+			Integer.valueOf(ipv4Address & 0xff),
+			Integer.valueOf((ipv4Address >> 8) & 0xff),
+			Integer.valueOf((ipv4Address >> 16) & 0xff),
+			Integer.valueOf((ipv4Address >> 24) & 0xff));
+	}
+}
@@ -0,0 +1,27 @@
+package android.widget;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import android.app.PendingIntent;
+
+// Host stub. Records what would be shown, so the host tools can see it.
+public class RemoteViews {
+	private final Map<Integer, Integer> imageResIds = new HashMap<Integer, Integer>();
+
+	public RemoteViews(String packageName, int layoutId) {
+	}
+
+	public void setImageViewResource(int viewId, int srcId) {
+		imageResIds.put(Integer.valueOf(viewId), Integer.valueOf(srcId));
+	}
+
+	public void setOnClickPendingIntent(int viewId, PendingIntent pendingIntent) {
+	}
+
+	// Not in the platform API
+	public int getImageViewResource(int viewId) {
+		Integer resId = imageResIds.get(Integer.valueOf(viewId));
+		return (resId == null) ? 0 : resId.intValue();
+	}
+}
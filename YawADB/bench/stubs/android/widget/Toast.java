@@ -0,0 +1,20 @@
+package android.widget;
+
+import android.content.Context;
+
+// Host stub: just what the benchmarked sources need
+public class Toast {
+	public static final int LENGTH_SHORT = 0;
+	public static final int LENGTH_LONG = 1;
+
+	public static Toast makeText(Context context, int resId, int duration) {
+		return new Toast();
+	}
+
+	public static Toast makeText(Context context, CharSequence text, int duration) {
+		return new Toast();
+	}
+
+	public void show() {
+	}
+}
@@ -0,0 +1,140 @@
+/*
+   GenerateR. Generates R from the resource names.
+   Copyright (C) 2013 Michael Glickman (Australia) <palmcrust@gmail.com>
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>
+*/
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Writes R.java for the host builds, which can't run aapt. Only names
+// matter there, so values are just numbered. Integer resources tune the
+// app, their values are written to resources.properties by id for the
+// Resources stub.
+//   GenerateR <res dir> <output dir> <package>
+public class GenerateR {
+	private static final Pattern idPattern = Pattern.compile("@\\+id/(\\w+)");
+	private static final Pattern valuePattern = 
+			Pattern.compile("<(string|color|dimen|style|string-array|integer|bool)\\s+name=\"([\\w.]+)\"");
+	private static final Pattern integerPattern = 
+			Pattern.compile("<integer\\s+name=\"(\\w+)\">\\s*(-?\\d+)\\s*</integer>");
+
+	private final Map<String, TreeSet<String>> resources = new TreeMap<String, TreeSet<String>>();
+	private final Map<String, String> integers = new TreeMap<String, String>();
+
+	public static void main(String[] args) throws IOException {
+		if (args.length != 3) {
+			System.err.println("Usage: GenerateR <res dir> <output dir> <package>");
+			System.exit(1);
+		}
+		GenerateR gen = new GenerateR();
+		gen.scan(new File(args[0]));
+		gen.write(new File(args[1]), args[2]);
+	}
+
+	private void scan(File resDir) throws IOException {
+		File[] dirs = resDir.listFiles();
+		if (dirs == null) throw new IOException("Can't list " + resDir);
+		for (File dir : dirs) {
+			File[] files = dir.listFiles();
+			if (files == null) continue;
+			// drawable-hdpi -> drawable
+			String type = dir.getName().split("-")[0];
+			for (File file : files) {
+				String name = file.getName();
+				int dot = name.indexOf('.');
+				if (dot > 0) name = name.substring(0, dot);
+				if (!type.equals("values")) add(type, name);
+				if (file.getName().endsWith(".xml")) scanXml(file);
+			}
+		}
+	}
+
+	private void scanXml(File file) throws IOException {
+		byte[] data = new byte[(int) file.length()];
+		FileInputStream is = new FileInputStream(file);
+		try {
+			int total = 0;
+			int count;
+			while (total < data.length && (count = is.read(data, total, data.length - total)) > 0)
+				total += count;
+		} finally {
+			is.close();
+		}
+		String text = new String(data, "UTF-8");
+
+		Matcher m = idPattern.matcher(text);
+		while (m.find()) add("id", m.group(1));
+		m = valuePattern.matcher(text);
+		while (m.find()) {
+			String type = m.group(1);
+			add(type.equals("string-array") ? "array" : type, m.group(2).replace('.', '_'));
+		}
+		m = integerPattern.matcher(text);
+		while (m.find()) integers.put(m.group(1), m.group(2));
+	}
+
+	private void add(String type, String name) {
+		TreeSet<String> names = resources.get(type);
+		if (names == null) {
+			names = new TreeSet<String>();
+			resources.put(type, names);
+		}
+		names.add(name);
+	}
+
+	private void write(File outDir, String pkg) throws IOException {
+		File dir = new File(outDir, pkg.replace('.', File.separatorChar));
+		if (!dir.isDirectory() && !dir.mkdirs()) throw new IOException("Can't create " + dir);
+
+		Properties values = new Properties();
+		PrintWriter pw = new PrintWriter(new File(dir, "R.java"), "UTF-8");
+		try {
+			pw.println("package " + pkg + ";");
+			pw.println();
+			pw.println("public final class R {");
+			int typeIndex = 1;
+			for (Map.Entry<String, TreeSet<String>> entry : resources.entrySet()) {
+				pw.println("\tpublic static final class " + entry.getKey() + " {");
+				int value = 0x7f000000 | (typeIndex++ << 16);
+				for (String name : entry.getValue()) {
+					if (entry.getKey().equals("integer") && integers.containsKey(name))
+						values.setProperty(Integer.toHexString(value), integers.get(name));
+					pw.println("\t\tpublic static final int " + name + " = 0x" + Integer.toHexString(value++) + ";");
+				}
+				pw.println("\t}");
+			}
+			pw.println("}");
+		} finally {
+			pw.close();
+		}
+
+		FileOutputStream os = new FileOutputStream(new File(outDir, "resources.properties"));
+		try {
+			values.store(os, "Integer resources by id");
+		} finally {
+			os.close();
+		}
+	}
+}
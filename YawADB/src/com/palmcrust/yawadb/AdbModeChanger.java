@@ -18,13 +18,17 @@
 
 package com.palmcrust.yawadb;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import android.content.Context;
-import android.content.Intent;
+import android.os.Looper;
 import android.os.Message;
 import android.widget.Toast;
 
-public class AdbModeChanger extends Thread {
-	
+// Run by ModeChangeQueue, never directly
+public class AdbModeChanger implements Runnable {
+	private static final int ReadyTimeout = 5000;
 
 	protected static class ThreadHandler extends android.os.Handler {
 //		public static final int WHAT_REFRESH_TEXT = 1;
@@ -32,7 +36,7 @@ public class AdbModeChanger extends Thread {
 		
 		private Context context;
 		public ThreadHandler(Context context) {
-			super();
+			super(Looper.getMainLooper());
 			this.context = context;
 		}
 		@Override
@@ -45,56 +49,231 @@ public class AdbModeChanger extends Thread {
 	}
 
 	private Context context;
-	private boolean explicit;
 	private String shellPath;
-	private boolean forceKill;
+	private int restartMethod;
+	private boolean fastSwitch;
+	private int configuredPort;
 	private AdbModeChanger.ThreadHandler handler;
 	private int port;
+	// Set by plan()
+	private boolean setPort;
+	private int method = -1;
+	private int adbdPid;
+	private boolean listening;
+	// Port to close the firewall gate for, DumbADBPort to open it
+	private int gatePort = StatusAnalyzer.DumbADBPort;
+	private boolean succeeded = false;
+	// The state after the change, null if it has failed
+	private StatusSnapshot verified = null;
+	// Only in auto restart mode
+	private RestartTuner tuner = null;
 
-	// explicit = true, if the thread is called as a result of enable/disable command,
-	public AdbModeChanger (Context context, boolean enable, boolean explicit) {
-		super();
+	// The result is posted by ModeChangeQueue, see getVerified().
+	// configuredPort is the port the options had when the change was requested.
+	public AdbModeChanger (Context context, boolean enable, int configuredPort) {
 		this.context = context;
-		this.explicit = explicit;
+		this.configuredPort = configuredPort;
 		handler = new ThreadHandler(context);
 		processOptions(enable);
 	}
 
 	private void processOptions(boolean enable) {
-		YawAdbOptions options = new YawAdbOptions(context);
-		port = enable ? options.portNumber.getIntValue() : StatusAnalyzer.DumbADBPort;
-		forceKill = (options.adbdRestartMethod.getIndex() != 0);
+		YawAdbOptions options = YawAdbOptions.getShared(context);
+		port = enable ? configuredPort : StatusAnalyzer.DumbADBPort;
+		fastSwitch = (options.fastSwitch.getIndex() != 0);
+		restartMethod = options.adbdRestartMethod.getIndex();
+		if (restartMethod == YawAdbOptions.AdbdRestartAuto)
+			tuner = RestartTuner.load(context);
 		shellPath = options.shellPath.getString();
 	}
 	
 	
 	public void run() {
-		String[] cmd = new String[3];
-		cmd[0] = "setprop service.adb.tcp.port " + port;
-		int pid = 0;
-		if (forceKill) pid = Utils.getAdbdPid();
-		cmd[1] = (pid <= 0) ? "stop adbd" : ("kill -9 " + pid);
-		cmd[2] = "start adbd";
+		long start = System.nanoTime();
+		List<String> cmds = new ArrayList<String>(3);
+		List<Metrics.Histogram> timings = new ArrayList<Metrics.Histogram>(3);
+		FirewallGate gate = FirewallGate.getDefault(context);
+		try {
+			gate.verify(shellPath);
+		} catch(InterruptedException ex) {
+			return;
+		}
+
+		// In TCP mode, fast switch leaves adbd alone and closes the gate
+		if (fastSwitch && port == StatusAnalyzer.DumbADBPort && 
+				(gate.getGatedPort() == configuredPort || getCurrentPort() == configuredPort)) {
+			port = configuredPort;
+			gatePort = configuredPort;
+		}
+		plan(cmds, timings);
 		
 		try {
-			if (!Utils.runBatchSequence(shellPath, cmd)) 
+			boolean done = true;
+			if (setPort)
+				done = Utils.runBatchSequence(shellPath, 
+						new String[] {"setprop service.adb.tcp.port " + port},
+						new Metrics.Histogram[] {Metrics.toggleSetprop});
+			if (done && !cmds.isEmpty())
+				done = restart(cmds, timings);
+
+			boolean gateChanged = (gate.getGatedPort() != gatePort);
+			if (done && gateChanged) {
+				long gateStart = System.nanoTime();
+				done = gate.setGatedPort(shellPath, gatePort);
+				Metrics.toggleGate.recordSince(gateStart);
+			}
+
+			if (!setPort && cmds.isEmpty() && !gateChanged)
+				Metrics.toggleSkipped.increment();
+
+			succeeded = done;
+			if (!done) {
+				Metrics.toggleFailed.increment();
 				Message.obtain(handler, AdbModeChanger.ThreadHandler.WHAT_SHOW_TOOLTIP, 
 						R.string.msgCouldntExecute, Toast.LENGTH_LONG).sendToTarget();
+			}
 			
 			// Refresh anyway (just to be up to date)	
-
-			// Wait no more than 5sec for the daemon to come up
-			if (port != StatusAnalyzer.DumbADBPort) {
-				int countDown = 25;
-				while(--countDown>=0 && Utils.getAdbdPid()<0) 
-					Thread.sleep(200);
-			}
+			Metrics.toggle.recordSince(start);
 			
-			Intent intent = new Intent(YawAdbConstants.AdbModeChangedAction);
-			intent.putExtra(YawAdbConstants.ExplicitExtra, explicit);
-			context.sendBroadcast(intent);
+			if (done) {
+				// Skipped changes have been verified by plan()
+				if (setPort || !cmds.isEmpty())
+					adbdPid = Utils.getAdbdPid();
+				verified = StatusAnalyzer.publishVerifiedState(context, port, adbdPid, listening, 
+						gate.isGated(port));
+			}
 			
 		} catch(InterruptedException ex) {}
 		
 	}
+
+	public boolean isSucceeded() {
+		return succeeded;
+	}
+
+	public StatusSnapshot getVerified() {
+		return verified;
+	}
+
+	// Restart commands are sent, and for a TCP port the daemon is awaited.
+	// In auto mode the time until it listens is recorded for the method,
+	// and if the method fails the other one is tried at once.
+	private boolean restart(List<String> cmds, List<Metrics.Histogram> timings) 
+			throws InterruptedException {
+		long restartStart = System.nanoTime();
+		boolean done = Utils.runBatchSequence(shellPath, cmds.toArray(new String[cmds.size()]), 
+				timings.toArray(new Metrics.Histogram[timings.size()]));
+		if (port == StatusAnalyzer.DumbADBPort) return done;
+
+		long readyStart = System.nanoTime();
+		done = done && awaitDaemon();
+		listening = done;
+		Metrics.toggleReady.recordSince(readyStart);
+		if (tuner == null || method < 0) return done;
+
+		if (done) {
+			tuner.recordSuccess(method, (System.nanoTime() - restartStart) / 1000000);
+			return true;
+		}
+
+		tuner.recordFailure(method);
+		method = RestartTuner.getAlternative(method);
+		int pid = Utils.getAdbdPid();
+		if (method == RestartTuner.MethodKill && pid <= 0)
+			return false;
+
+		cmds.clear();
+		timings.clear();
+		addRestartCommands(cmds, timings, pid);
+		restartStart = System.nanoTime();
+		done = Utils.runBatchSequence(shellPath, cmds.toArray(new String[cmds.size()]), 
+				timings.toArray(new Metrics.Histogram[timings.size()])) && awaitDaemon();
+		listening = done;
+		if (done)
+			tuner.recordSuccess(method, (System.nanoTime() - restartStart) / 1000000);
+		else
+			tuner.recordFailure(method);
+		return done;
+	}
+
+	// Compares the current state with the wanted one and leaves out what
+	// is done already. adbd isn't restarted without need, so USB sessions
+	// survive a redundant toggle.
+	private void plan(List<String> cmds, List<Metrics.Histogram> timings) {
+		boolean portSet = (getCurrentPort() == port);
+
+		int pid = Utils.getAdbdPid();
+		// -1: not running, other negative values: couldn't find out
+		boolean running = (pid != -1);
+		adbdPid = pid;
+
+		setPort = !portSet;
+
+		// Running with the port set, but could have been started before
+		// it was. If sockets can't be inspected, we trust the property.
+		if (running && portSet) {
+			if (port == StatusAnalyzer.DumbADBPort) {
+				// The property is told nothing of the port adbd still uses,
+				// it's the configured or the default one unless set by hand
+				listening = false;
+				if (!isListening(configuredPort) && !isListening(StatusAnalyzer.DefaultADBPort))
+					return;
+			} else {
+				listening = (ListenDetector.getDefault().check(port) != ListenDetector.State.NOT_LISTENING);
+				if (listening)
+					return;
+			}
+		}
+
+		if (!running)
+			method = RestartTuner.MethodStop;
+		else
+		if (tuner != null)
+			method = tuner.choose(pid > 0);
+		else
+			method = (restartMethod != YawAdbOptions.AdbdRestartNormal && pid > 0) ?
+					RestartTuner.MethodKill : RestartTuner.MethodStop;
+		addRestartCommands(cmds, timings, pid);
+	}
+
+	// Only if known to be
+	private static boolean isListening(int port) {
+		return (port > 0 && ListenDetector.getDefault().check(port) == ListenDetector.State.LISTENING);
+	}
+
+	// pid: -1 if not running
+	private void addRestartCommands(List<String> cmds, List<Metrics.Histogram> timings, int pid) {
+		if (pid != -1) {
+			cmds.add((method == RestartTuner.MethodKill) ? ("kill -9 " + pid) : "stop adbd");
+			timings.add(Metrics.toggleStop);
+		}
+		cmds.add("start adbd");
+		timings.add(Metrics.toggleStart);
+	}
+
+	// TCP port adbd is told to use, DumbADBPort for USB
+	private static int getCurrentPort() {
+		int curPort = StatusAnalyzer.DumbADBPort;
+		String curPortStr = Utils.getProp("service.adb.tcp.port");
+		if (!Utils.isEmpty(curPortStr))
+			try {
+				curPort = Math.max(Integer.parseInt(curPortStr.trim()), StatusAnalyzer.DumbADBPort);
+			} catch (NumberFormatException ex) {}
+		return (curPort == 0) ? StatusAnalyzer.DumbADBPort : curPort;
+	}
+
+	// Wait no more than 5sec for the daemon to accept connections,
+	// returns false if it didn't
+	private boolean awaitDaemon() throws InterruptedException {
+		ListenDetector.State state = ListenDetector.getDefault().await(port, ReadyTimeout);
+		if (state != ListenDetector.State.UNKNOWN) 
+			return (state == ListenDetector.State.LISTENING);
+
+		// Sockets are hidden from us, settle for the daemon process
+		int countDown = 25;
+		while(--countDown>=0 && Utils.getAdbdPid()<0) 
+			Thread.sleep(200);
+		return (countDown >= 0);
+	}
 }
\ No newline at end of file
@@ -0,0 +1,128 @@
+/*
+   AdbdLocator. Finds adbd process by scanning procfs.
+   Copyright (C) 2013 Michael Glickman (Australia) <palmcrust@gmail.com>
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>
+*/
+
+package com.palmcrust.yawadb;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+// Reads /proc/<pid>/cmdline instead of forking 'ps'. The last pid found
+// is remembered, so normally only one procfs entry needs to be checked.
+// The procfs root can be replaced with a fake tree for benchmarking.
+public class AdbdLocator {
+	public static final String DefaultProcRoot = "/proc";
+
+	public static final int PidNotFound = -1;
+	// procfs is mounted with hidepid, or SELinux denies reading other
+	// processes' cmdline: we can't tell whether adbd runs
+	public static final int PidUnavailable = -3;
+
+	private static final byte[] DaemonName = {'a', 'd', 'b', 'd'};
+	private static AdbdLocator defaultLocator = null;
+
+	private final File procRoot;
+	private final String procRootPath;
+	private final byte[] buffer = new byte[256];
+	private int lastPid = PidNotFound;
+
+	public AdbdLocator(File procRoot) {
+		this.procRoot = procRoot;
+		procRootPath = procRoot.getPath();
+	}
+
+	public static synchronized AdbdLocator getDefault() {
+		if (defaultLocator == null)
+			defaultLocator = new AdbdLocator(new File(DefaultProcRoot));
+		return defaultLocator;
+	}
+
+	// Host-side tools point it at a fake procfs
+	static synchronized void setDefault(AdbdLocator locator) {
+		defaultLocator = locator;
+	}
+
+	public synchronized int findPid() {
+		if (lastPid > 0 && isAdbd(lastPid)) return lastPid;
+		lastPid = PidNotFound;
+
+		// init's cmdline is always readable, unless foreign processes are
+		// hidden from us. Not finding adbd then wouldn't mean it isn't there.
+		if (readFile(procRootPath + File.separatorChar + "1/cmdline", buffer) <= 0) return PidUnavailable;
+
+		String[] entries = procRoot.list();
+		if (entries == null) return PidUnavailable;
+
+		for (String entry : entries) {
+			int pid = parsePid(entry);
+			if (pid > 0 && isAdbd(pid)) {
+				lastPid = pid;
+				break;
+			}
+		}
+		return lastPid;
+	}
+
+	private static int parsePid(String entry) {
+		int len = entry.length();
+		if (len <= 0 || len > 9) return -1;
+		int pid = 0;
+		for (int i = 0; i < len; i++) {
+			char ch = entry.charAt(i);
+			if (ch < '0' || ch > '9') return -1;
+			pid = pid * 10 + (ch - '0');
+		}
+		return pid;
+	}
+
+	// Checks whether the base name of argv[0] is 'adbd'
+	private boolean isAdbd(int pid) {
+		int len = readFile(procRootPath + File.separatorChar + pid + "/cmdline", buffer);
+		if (len <= 0) return false;
+
+		int end = 0;
+		while (end < len && buffer[end] != 0) end++;
+		int start = end;
+		while (start > 0 && buffer[start - 1] != '/') start--;
+
+		if (end - start != DaemonName.length) return false;
+		for (int i = 0; i < DaemonName.length; i++)
+			if (buffer[start + i] != DaemonName[i]) return false;
+		return true;
+	}
+
+	// Fills as much of the buffer as the file provides, returns the length
+	// or -1 if the file can't be read (e.g. the process has just gone).
+	static int readFile(String path, byte[] buf) {
+		FileInputStream is = null;
+		try {
+			is = new FileInputStream(path);
+			int total = 0;
+			int count;
+			while (total < buf.length &&
+					(count = is.read(buf, total, buf.length - total)) > 0)
+				total += count;
+			return total;
+		} catch (IOException ex) {
+			return -1;
+		} finally {
+			if (is != null)
+				try {is.close();} catch (IOException ex) {}
+		}
+	}
+}
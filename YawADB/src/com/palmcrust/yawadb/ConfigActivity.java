@@ -44,7 +44,7 @@ public class ConfigActivity extends Activity {
 	protected void onCreate(Bundle savedInstanceState) {
 		super.onCreate(savedInstanceState);
 		rsrc = getResources();
-		options = new YawAdbOptions(this);
+		options = YawAdbOptions.getShared(this).edit();
 		oldPort = options.portNumber.getIntValue();
 		oldAutoUsb=options.getAutoUsbValue();
 		asWidget = getIntent().getBooleanExtra(YawAdbConstants.AsWidgetExtra, false);
@@ -185,6 +185,7 @@ public class ConfigActivity extends Activity {
 			setResult(Activity.RESULT_OK, intent);
 			
 			options.savePreferences();
+			EventBus.getDefault().post(new YawAdbEvents.OptionsChanged());
 		}
 		
 		return super.onKeyDown(keyCode, event);
@@ -0,0 +1,96 @@
+/*
+   EventBus. Delivers events between our own components.
+   Copyright (C) 2013 Michael Glickman (Australia) <palmcrust@gmail.com>
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>
+*/
+
+package com.palmcrust.yawadb;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import android.os.Handler;
+import android.os.Looper;
+
+// The widget service, the popup, the config screen and the mode changer
+// run in one process, so they tell each other of events (see YawAdbEvents)
+// here rather than by broadcasts, which go through system_server and can
+// be seen by other apps. Events are typed, a subscriber gets those of its
+// type (subclasses included) on the looper it has chosen. Posting is
+// allowed in any thread and doesn't wait for the delivery.
+public class EventBus {
+
+	public interface Subscriber<E> {
+		// Called on the looper given to subscribe()
+		void onEvent(E event);
+	}
+
+	private static class Subscription<E> {
+		final Class<E> type;
+		final Subscriber<? super E> subscriber;
+		final Handler handler;
+		// Events posted before unsubscribe() may still be queued
+		volatile boolean active = true;
+
+		Subscription(Class<E> type, Subscriber<? super E> subscriber, Looper looper) {
+			this.type = type;
+			this.subscriber = subscriber;
+			this.handler = new Handler(looper);
+		}
+
+		void deliver(Object event) {
+			final E typedEvent = type.cast(event);
+			handler.post(new Runnable() {
+				public void run() {
+					if (active) subscriber.onEvent(typedEvent);
+				}
+			});
+		}
+	}
+
+	private static EventBus defaultBus = null;
+
+	private final CopyOnWriteArrayList<Subscription<?>> subscriptions = 
+		new CopyOnWriteArrayList<Subscription<?>>();
+
+	public static synchronized EventBus getDefault() {
+		if (defaultBus == null)
+			defaultBus = new EventBus();
+		return defaultBus;
+	}
+
+	// Subscribing again for the same type has no effect, the service
+	// does it on every start command
+	public synchronized <E> void subscribe(Class<E> type, Looper looper, 
+			Subscriber<? super E> subscriber) {
+		for (Subscription<?> subscription : subscriptions)
+			if (subscription.type == type && subscription.subscriber == subscriber) return;
+		subscriptions.add(new Subscription<E>(type, subscriber, looper));
+	}
+
+	// All subscriptions of the subscriber, nothing is delivered to it afterwards
+	public synchronized void unsubscribe(Subscriber<?> subscriber) {
+		for (Subscription<?> subscription : subscriptions)
+			if (subscription.subscriber == subscriber) {
+				subscription.active = false;
+				subscriptions.remove(subscription);
+			}
+	}
+
+	public void post(Object event) {
+		for (Subscription<?> subscription : subscriptions)
+			if (subscription.type.isInstance(event))
+				subscription.deliver(event);
+	}
+}
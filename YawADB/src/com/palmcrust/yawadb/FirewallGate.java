@@ -0,0 +1,184 @@
+/*
+   FirewallGate. Blocks wireless ADB connections with a firewall rule.
+   Copyright (C) 2013 Michael Glickman (Australia) <palmcrust@gmail.com>
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>
+*/
+
+package com.palmcrust.yawadb;
+
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+
+import android.content.Context;
+import android.os.SystemClock;
+
+// Fast switch: adbd keeps listening on its TCP port, and wireless access
+// is turned off by a rule rejecting connections to the port from anywhere
+// but loopback. Adding or removing the rule takes a few ms and USB
+// sessions are not touched, unlike restarting adbd.
+//
+// We can't read the rules back without parsing iptables output, so the
+// gate state is kept in a file. Rules don't survive a reboot, hence the
+// state is tagged with the boot id and ignored after one. Others (e.g. a
+// firewall app) may flush the rules, so the rule is looked for before
+// the gate is changed: acting on a gate that isn't there would be worse
+// than not knowing of one. This needs the root shell, so it isn't done
+// on load, which the status analysis waits for.
+public class FirewallGate {
+	private static final String StateFileName = "gate.dat";
+	private static final String TempFileName = "gate.tmp";
+	private static final String BootIdPath = "/proc/sys/kernel/random/boot_id";
+	private static final byte[] signature = {'Y', 'G'};
+	private static final short version = 1;
+
+	private static FirewallGate defaultGate = null;
+
+	private final Context context;
+	private final String bootId;
+	// Port the rule has been added for, DumbADBPort if none
+	private volatile int gatedPort = StatusAnalyzer.DumbADBPort;
+
+	private FirewallGate(Context context) {
+		this.context = context;
+		bootId = readBootId();
+	}
+
+	public static synchronized FirewallGate getDefault(Context context) {
+		if (defaultGate == null) {
+			defaultGate = new FirewallGate(context.getApplicationContext());
+			defaultGate.load();
+		}
+		return defaultGate;
+	}
+
+	public boolean isGated(int port) {
+		return (port > 0 && gatedPort == port);
+	}
+
+	public int getGatedPort() {
+		return gatedPort;
+	}
+
+	// Adds the rule for the port (replacing one for another port), or
+	// removes it if port is DumbADBPort. The IPv6 rule is best effort,
+	// ip6tables may be missing. Returns false if iptables has failed.
+	public synchronized boolean setGatedPort(String shellPath, int port) throws InterruptedException {
+		if (port == gatedPort) return true;
+
+		String[] cmds = new String[(port > 0) ? 4 : 2];
+		if (gatedPort > 0) {
+			cmds[0] = removeCommand("ip6tables", gatedPort) + " 2>/dev/null";
+			cmds[1] = removeCommand("iptables", gatedPort);
+		} else {
+			cmds[0] = cmds[1] = "true";
+		}
+		if (port > 0) {
+			cmds[2] = "ip6tables -I INPUT " + ruleSpec(port) + " 2>/dev/null";
+			cmds[3] = "iptables -I INPUT " + ruleSpec(port);
+		}
+
+		if (!Utils.runBatchSequence(shellPath, cmds)) return false;
+		gatedPort = port;
+		save();
+		return true;
+	}
+
+	private static String ruleSpec(int port) {
+		return "-p tcp --dport " + port + " ! -i lo -j REJECT --reject-with tcp-reset";
+	}
+
+	// Also removes duplicates left by an earlier failure
+	private static String removeCommand(String tool, int port) {
+		return "while " + tool + " -D INPUT " + ruleSpec(port) + " 2>/dev/null; do :; done";
+	}
+
+	private void load() {
+		DataInputStream is = null;
+		try {
+			is = new DataInputStream(context.openFileInput(StateFileName));
+			if (is.readByte() != signature[0] || is.readByte() != signature[1] ||
+					is.readUnsignedShort() > version)
+				throw new IOException("Wrong gate state format");
+			String savedBootId = is.readUTF();
+			int port = is.readInt();
+			if (savedBootId.equals(bootId))
+				gatedPort = port;
+		} catch (FileNotFoundException ex) {
+		} catch (IOException ex) {
+			ex.printStackTrace();
+		} finally {
+			if (is != null)
+				try {is.close();} catch (IOException ex) {}
+		}
+	}
+
+	// Clears the state if the rule has gone. 'iptables -C' exits with 1
+	// if there is no such rule. Old versions don't know the option
+	// (exit code 2), then the state is trusted.
+	public synchronized void verify(String shellPath) throws InterruptedException {
+		if (gatedPort <= 0) return;
+		int exitCode = RootShell.getSession(shellPath).execute(Utils.ExecTimeout,
+				new String[] {"iptables -C INPUT " + ruleSpec(gatedPort)});
+		if (exitCode == 1) {
+			gatedPort = StatusAnalyzer.DumbADBPort;
+			save();
+		}
+	}
+
+	// Written aside and renamed, like the options
+	private void save() {
+		DataOutputStream os = null;
+		try {
+			FileOutputStream fos = context.openFileOutput(TempFileName, Context.MODE_PRIVATE);
+			os = new DataOutputStream(fos);
+			os.write(signature);
+			os.writeShort(version);
+			os.writeUTF(bootId);
+			os.writeInt(gatedPort);
+			os.flush();
+			fos.getFD().sync();
+			os.close();
+			os = null;
+			context.getFileStreamPath(TempFileName).renameTo(
+					context.getFileStreamPath(StateFileName));
+		} catch (IOException ex) {
+			ex.printStackTrace();
+		} finally {
+			if (os != null)
+				try {os.close();} catch (IOException ex) {}
+		}
+	}
+
+	// Kernels without boot_id: the boot time, rounded as it drifts a bit
+	private static String readBootId() {
+		BufferedReader rd = null;
+		try {
+			rd = new BufferedReader(new FileReader(BootIdPath), 64);
+			String id = rd.readLine();
+			if (!Utils.isEmpty(id)) return id.trim();
+		} catch (IOException ex) {
+		} finally {
+			if (rd != null)
+				try {rd.close();} catch (IOException ex) {}
+		}
+		long bootTime = System.currentTimeMillis() - SystemClock.elapsedRealtime();
+		return "boot@" + (bootTime / 60000);
+	}
+}
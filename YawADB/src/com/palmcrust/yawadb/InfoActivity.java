@@ -18,10 +18,14 @@
 
 package com.palmcrust.yawadb;
 
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
 import android.app.Activity;
 import android.content.pm.PackageManager.NameNotFoundException;
 import android.content.res.Resources;
 import android.os.Bundle;
+import android.text.TextUtils;
 import android.view.KeyEvent;
 import android.view.View;
 import android.webkit.WebView;
@@ -103,6 +107,10 @@ public class InfoActivity extends Activity {
 					case R.id.infoLicense:
 						fileNameId = R.string.infoPathLicense;
 						break;
+
+					case R.id.infoDiagnostics:
+						showDiagnostics();
+						break;
 				}
 				if (fileNameId != 0) {
 					String fileName = rsrc.getString(fileNameId);
@@ -111,4 +119,11 @@ public class InfoActivity extends Activity {
 			}
 		};
 
+	// Metrics of this process, i.e. since the widget was last (re)started 
+	protected void showDiagnostics() {
+		StringWriter sw = new StringWriter();
+		Metrics.dump(new PrintWriter(sw));
+		wView.loadData("<html><body><pre>" + TextUtils.htmlEncode(sw.toString()) + 
+				"</pre></body></html>", "text/html", "utf-8");
+	}
 }
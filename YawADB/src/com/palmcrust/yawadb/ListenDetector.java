@@ -0,0 +1,154 @@
+/*
+   ListenDetector. Checks whether a TCP port is being listened on.
+   Copyright (C) 2013 Michael Glickman (Australia) <palmcrust@gmail.com>
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>
+*/
+
+package com.palmcrust.yawadb;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+// Running adbd doesn't mean it accepts connections yet. We look for a
+// LISTEN socket on the port in /proc/net/tcp and /proc/net/tcp6, where
+// each line reads "sl: local_addr:port remote_addr:port st ...", in hex.
+public class ListenDetector {
+	public static enum State {LISTENING, NOT_LISTENING, UNKNOWN}
+
+	private static final int TcpListenState = 0x0A;
+	private static final String[] TableNames = {"net/tcp", "net/tcp6"};
+
+	private static final int FirstPollInterval = 10;
+	private static final int MaxPollInterval = 200;
+
+	private static ListenDetector defaultDetector = null;
+
+	private final String[] tablePaths;
+	private byte[] buffer = new byte[4096];
+
+	public ListenDetector(File procRoot) {
+		tablePaths = new String[TableNames.length];
+		for (int i = 0; i < TableNames.length; i++)
+			tablePaths[i] = new File(procRoot, TableNames[i]).getPath();
+	}
+
+	public static synchronized ListenDetector getDefault() {
+		if (defaultDetector == null)
+			defaultDetector = new ListenDetector(new File(AdbdLocator.DefaultProcRoot));
+		return defaultDetector;
+	}
+
+	// Host-side tools point it at a fake procfs
+	static synchronized void setDefault(ListenDetector detector) {
+		defaultDetector = detector;
+	}
+
+	public synchronized State check(int port) {
+		boolean readable = false;
+		for (String path : tablePaths) {
+			int len = readTable(path);
+			if (len < 0) continue;
+			readable = true;
+			if (findListener(len, port)) return State.LISTENING;
+		}
+		// Newer platforms don't let applications read the tables
+		return readable ? State.NOT_LISTENING : State.UNKNOWN;
+	}
+
+	// Polls often at first and slows down gradually, so we return
+	// almost as soon as the port is bound, without spinning for long.
+	public State await(int port, long timeout) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + timeout;
+		int interval = FirstPollInterval;
+		for (;;) {
+			State state = check(port);
+			if (state != State.NOT_LISTENING) return state;
+
+			long left = deadline - System.currentTimeMillis();
+			if (left <= 0) return state;
+			Thread.sleep(Math.min(interval, left));
+			if (interval < MaxPollInterval)
+				interval = Math.min(interval * 2, MaxPollInterval);
+		}
+	}
+
+	private boolean findListener(int len, int port) {
+		byte[] buf = buffer;
+		int pos = 0;
+		// Skip header line
+		while (pos < len && buf[pos] != '\n') pos++;
+
+		while (pos < len) {
+			pos++;
+			int lineEnd = pos;
+			while (lineEnd < len && buf[lineEnd] != '\n') lineEnd++;
+
+			// Local address port follows the first ':' after the slot number
+			int colon = -1;
+			int i = pos;
+			while (i < lineEnd && buf[i] != ':') i++;    // slot number
+			i++;
+			while (i < lineEnd && buf[i] != ':') i++;    // local address
+			if (i < lineEnd) colon = i;
+
+			if (colon > 0 && parseHex(buf, colon + 1, 4) == port) {
+				i = colon + 5;
+				while (i < lineEnd && buf[i] == ' ') i++;   // remote address
+				while (i < lineEnd && buf[i] != ' ') i++;
+				while (i < lineEnd && buf[i] == ' ') i++;   // state
+				if (i + 2 <= lineEnd && parseHex(buf, i, 2) == TcpListenState)
+					return true;
+			}
+			pos = lineEnd;
+		}
+		return false;
+	}
+
+	private static int parseHex(byte[] buf, int pos, int count) {
+		if (pos + count > buf.length) return -1;
+		int value = 0;
+		for (int i = pos; i < pos + count; i++) {
+			int digit = Character.digit(buf[i], 16);
+			if (digit < 0) return -1;
+			value = (value << 4) | digit;
+		}
+		return value;
+	}
+
+	// procfs reports zero size for the tables, so the buffer grows as needed
+	private int readTable(String path) {
+		FileInputStream is = null;
+		try {
+			is = new FileInputStream(path);
+			int total = 0;
+			int count;
+			while ((count = is.read(buffer, total, buffer.length - total)) > 0) {
+				total += count;
+				if (total == buffer.length) {
+					byte[] newBuffer = new byte[buffer.length * 2];
+					System.arraycopy(buffer, 0, newBuffer, 0, total);
+					buffer = newBuffer;
+				}
+			}
+			return total;
+		} catch (IOException ex) {
+			return -1;
+		} finally {
+			if (is != null)
+				try {is.close();} catch (IOException ex) {}
+		}
+	}
+}
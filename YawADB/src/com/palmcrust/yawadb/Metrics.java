@@ -0,0 +1,179 @@
+/*
+   Metrics. Counters and latency histograms of the hot paths.
+   Copyright (C) 2013 Michael Glickman (Australia) <palmcrust@gmail.com>
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>
+*/
+
+package com.palmcrust.yawadb;
+
+import java.io.PrintWriter;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Process-wide, since the process started. Recording neither allocates
+// nor locks, so it can be done anywhere, as often as needed.
+public class Metrics {
+	// Upper bounds of histogram buckets (us), the last bucket takes the rest
+	private static final long[] BucketBounds =
+		{100, 200, 500, 1000, 2000, 5000, 10000, 20000, 50000,
+		 100000, 200000, 500000, 1000000, 2000000, 5000000};
+
+	public static final class Counter {
+		private final String name;
+		private final AtomicLong value = new AtomicLong();
+
+		Counter(String name) {
+			this.name = name;
+		}
+
+		public void increment() {
+			value.incrementAndGet();
+		}
+
+		public long get() {
+			return value.get();
+		}
+	}
+
+	public static final class Histogram {
+		private final String name;
+		private final AtomicLongArray buckets = new AtomicLongArray(BucketBounds.length + 1);
+		private final AtomicLong count = new AtomicLong();
+		private final AtomicLong total = new AtomicLong();
+		private final AtomicLong max = new AtomicLong();
+
+		Histogram(String name) {
+			this.name = name;
+		}
+
+		// startNanos: System.nanoTime() at the start of the measured operation
+		public void recordSince(long startNanos) {
+			record((System.nanoTime() - startNanos) / 1000);
+		}
+
+		public void record(long micros) {
+			if (micros < 0) micros = 0;
+			int bucket = 0;
+			while (bucket < BucketBounds.length && micros > BucketBounds[bucket]) bucket++;
+			buckets.incrementAndGet(bucket);
+			count.incrementAndGet();
+			total.addAndGet(micros);
+
+			long curMax;
+			while ((curMax = max.get()) < micros && !max.compareAndSet(curMax, micros));
+		}
+
+		public long getCount() {
+			return count.get();
+		}
+
+		// Upper bound of the bucket the percentile falls in (us),
+		// -1 if there are no records or it is in the last bucket
+		public long getPercentileBound(int percent) {
+			long cnt = count.get();
+			if (cnt <= 0) return -1;
+			long rank = (cnt * percent + 99) / 100;
+			long seen = 0;
+			for (int i = 0; i < BucketBounds.length; i++) {
+				seen += buckets.get(i);
+				if (seen >= rank) return BucketBounds[i];
+			}
+			return -1;
+		}
+
+		private void dump(PrintWriter pw) {
+			long cnt = count.get();
+			pw.printf("  %-16s %6d", name, Long.valueOf(cnt));
+			if (cnt > 0)
+				pw.printf("  avg %s  p50 %s  p95 %s  max %s",
+					formatMillis(total.get() / cnt), formatBound(getPercentileBound(50)),
+					formatBound(getPercentileBound(95)), formatMillis(max.get()));
+			pw.println();
+		}
+
+		private void dumpBuckets(PrintWriter pw) {
+			if (count.get() <= 0) return;
+			pw.printf("  %-16s", name);
+			for (int i = 0; i <= BucketBounds.length; i++) {
+				long value = buckets.get(i);
+				if (value == 0) continue;
+				pw.printf(" %s:%d", (i < BucketBounds.length) ? formatMillis(BucketBounds[i]) : "more",
+					Long.valueOf(value));
+			}
+			pw.println();
+		}
+	}
+
+	// Forks
+	public static final Histogram getprop = new Histogram("getprop");
+	public static final Histogram ps = new Histogram("ps");
+	public static final Counter forks = new Counter("forks");
+	public static final Counter shellStarts = new Counter("shell starts");
+	public static final Counter execTimeouts = new Counter("exec timeouts");
+
+	// Status analysis
+	public static final Histogram analysis = new Histogram("analysis");
+	public static final Histogram probe = new Histogram("probe");
+	public static final Counter analysisReused = new Counter("results reused");
+	public static final Counter analysisJoined = new Counter("probes joined");
+	public static final Counter analysisFailed = new Counter("analyses failed");
+	public static final Counter probeStale = new Counter("probes outdated");
+
+	// Service start to the first widget paint: with the stored status,
+	// and with the analysed one
+	public static final Histogram startupPaint = new Histogram("startup paint");
+	public static final Histogram startupStatus = new Histogram("startup status");
+
+	// Mode toggle, overall and by phase
+	public static final Histogram toggle = new Histogram("toggle");
+	public static final Histogram toggleSetprop = new Histogram("  setprop");
+	public static final Histogram toggleStop = new Histogram("  stop/kill");
+	public static final Histogram toggleStart = new Histogram("  start");
+	public static final Histogram toggleReady = new Histogram("  readiness");
+	public static final Histogram toggleGate = new Histogram("  firewall");
+	public static final Counter toggleFailed = new Counter("toggles failed");
+	public static final Counter toggleSkipped = new Counter("toggles skipped");
+	public static final Counter toggleSuperseded = new Counter("toggles dropped");
+
+	private static final Histogram[] histograms =
+		{getprop, ps, analysis, probe, startupPaint, startupStatus,
+		 toggle, toggleSetprop, toggleStop, toggleStart, toggleReady, toggleGate};
+	private static final Counter[] counters =
+		{forks, shellStarts, execTimeouts, analysisReused, analysisJoined, analysisFailed, probeStale, toggleFailed, toggleSkipped,
+		 toggleSuperseded};
+
+	public static void dump(PrintWriter pw) {
+		pw.println("Latency (ms)");
+		for (Histogram h : histograms) h.dump(pw);
+		pw.println();
+		pw.println("Counters");
+		for (Counter c : counters)
+			pw.printf("  %-16s %6d%n", c.name, Long.valueOf(c.get()));
+		pw.println();
+		pw.println("Histograms (ms, bucket upper bound:count)");
+		for (Histogram h : histograms) h.dumpBuckets(pw);
+		pw.flush();
+	}
+
+	private static String formatMillis(long micros) {
+		return (micros < 10000)
+			? String.format("%.1f", Double.valueOf(micros / 1000.0))
+			: Long.toString(micros / 1000);
+	}
+
+	private static String formatBound(long bound) {
+		return (bound < 0) ? ">" + formatMillis(BucketBounds[BucketBounds.length - 1]) : "<=" + formatMillis(bound);
+	}
+}
@@ -0,0 +1,143 @@
+/*
+   ModeChangeQueue. Serializes ADB connection mode changes.
+   Copyright (C) 2013 Michael Glickman (Australia) <palmcrust@gmail.com>
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>
+*/
+
+package com.palmcrust.yawadb;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import android.content.Context;
+
+// The widget service (auto USB) and the popup can both ask for a mode
+// change, so all of them go through one worker. At most one change runs,
+// and one waits: a newer request replaces the waiting one, since only
+// the last requested mode matters. A request for the mode and port
+// being set right now joins the running change. Every requester is told
+// the result of the change that was made for it.
+public class ModeChangeQueue {
+
+	public interface Listener {
+		// Called in the worker thread
+		void onModeChangeDone(boolean enable, boolean succeeded);
+	}
+
+	private static class Request {
+		final Context context;
+		final boolean enable;
+		// Configured when submitted, a new one must not join an old change.
+		// The change is made for this port, whatever the options say by then.
+		final int port;
+		boolean explicit;
+		final List<Listener> listeners = new ArrayList<Listener>(2);
+
+		Request(Context context, boolean enable, int port, boolean explicit) {
+			this.context = context;
+			this.enable = enable;
+			this.port = port;
+			this.explicit = explicit;
+		}
+
+		void takeOver(Request other) {
+			listeners.addAll(other.listeners);
+			explicit |= other.explicit;
+		}
+	}
+
+	private static ModeChangeQueue defaultQueue = null;
+
+	private Request running = null;
+	private Request pending = null;
+	private Thread worker = null;
+
+	public static synchronized ModeChangeQueue getDefault() {
+		if (defaultQueue == null)
+			defaultQueue = new ModeChangeQueue();
+		return defaultQueue;
+	}
+
+	// explicit = true, if requested by enable/disable command,
+	// listener may be null
+	public synchronized void submit(Context context, boolean enable, boolean explicit, Listener listener) {
+		int port = YawAdbOptions.getShared(context).portNumber.getIntValue();
+		Request target;
+		if (running != null && running.enable == enable && running.port == port) {
+			// Being done already, a waiting opposite change is void
+			target = running;
+			target.explicit |= explicit;
+			if (pending != null) {
+				target.takeOver(pending);
+				pending = null;
+				Metrics.toggleSuperseded.increment();
+			}
+		} else {
+			target = new Request(context.getApplicationContext(), enable, port, explicit);
+			if (pending != null) {
+				target.takeOver(pending);
+				Metrics.toggleSuperseded.increment();
+			}
+			pending = target;
+		}
+		if (listener != null)
+			target.listeners.add(listener);
+
+		if (worker == null) {
+			worker = new Thread(new Runnable() {
+				public void run() {
+					processRequests();
+				}
+			}, "YawADB mode change");
+			worker.start();
+		}
+	}
+
+	// The listener won't be called, the change is still made
+	public synchronized void cancel(Listener listener) {
+		if (running != null) running.listeners.remove(listener);
+		if (pending != null) pending.listeners.remove(listener);
+	}
+
+	private void processRequests() {
+		for (;;) {
+			Request request;
+			synchronized(this) {
+				request = pending;
+				pending = null;
+				if (request == null) {
+					worker = null;
+					return;
+				}
+				running = request;
+			}
+			// Reads the options and the restart stats, submit() shouldn't wait for it
+			AdbModeChanger changer = new AdbModeChanger(request.context, request.enable, request.port);
+			changer.run();
+
+			// Requests may have joined meanwhile, explicit ones too
+			Listener[] listeners;
+			boolean explicit;
+			synchronized(this) {
+				running = null;
+				listeners = request.listeners.toArray(new Listener[request.listeners.size()]);
+				explicit = request.explicit;
+			}
+			EventBus.getDefault().post(new YawAdbEvents.AdbModeChanged(explicit, changer.getVerified()));
+			for (Listener listener : listeners)
+				listener.onModeChangeDone(request.enable, changer.isSucceeded());
+		}
+	}
+}
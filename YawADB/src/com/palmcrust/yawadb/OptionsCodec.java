@@ -0,0 +1,141 @@
+/*
+   OptionsCodec. Binary representation of YawADB options.
+   Copyright (C) 2013 Michael Glickman (Australia) <palmcrust@gmail.com>
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>
+*/
+
+package com.palmcrust.yawadb;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPInputStream;
+
+// Layout: signature "YB", version (short), entry count (byte), entries
+// and CRC32 of all the preceding bytes (int). An entry is the option key
+// (UTF), value type (byte) and the value: int, or UTF for strings.
+//
+// Version 1.2 files (signature "YA") were GZIP-ed Java serialization
+// streams, they are still read to be converted.
+public class OptionsCodec {
+	private static final byte[] signature = {'Y', 'B'};
+	private static final short version = 1;
+	private static final byte TypeInt = 'I';
+	private static final byte TypeString = 'S';
+
+	private static final byte[] legacySignature = {'Y', 'A'};
+	private static final short legacyVersion = 0;
+
+	public static byte[] encode(Map<String, Object> values) throws IOException {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream(64);
+		DataOutputStream os = new DataOutputStream(bos);
+		os.write(signature);
+		os.writeShort(version);
+		os.writeByte(values.size());
+		for (Map.Entry<String, Object> entry : values.entrySet()) {
+			os.writeUTF(entry.getKey());
+			Object value = entry.getValue();
+			if (value instanceof Integer) {
+				os.writeByte(TypeInt);
+				os.writeInt(((Integer)value).intValue());
+			} else {
+				os.writeByte(TypeString);
+				os.writeUTF(String.valueOf(value));
+			}
+		}
+		os.flush();
+
+		CRC32 crc = new CRC32();
+		crc.update(bos.toByteArray(), 0, bos.size());
+		os.writeInt((int) crc.getValue());
+		os.flush();
+		return bos.toByteArray();
+	}
+
+	// Throws IOException if data is damaged or of unknown format
+	public static Map<String, Object> decode(byte[] data, int length) throws IOException {
+		if (length < signature.length + 7 ||
+				data[0] != signature[0] || data[1] != signature[1])
+			throw new IOException("Wrong signature");
+
+		int crcPos = length - 4;
+		CRC32 crc = new CRC32();
+		crc.update(data, 0, crcPos);
+		int storedCrc = ((data[crcPos] & 0xff) << 24) | ((data[crcPos + 1] & 0xff) << 16) |
+			((data[crcPos + 2] & 0xff) << 8) | (data[crcPos + 3] & 0xff);
+		if ((int) crc.getValue() != storedCrc)
+			throw new IOException("Checksum mismatch");
+
+		DataInputStream is = new DataInputStream(new ByteArrayInputStream(data, 2, crcPos - 2));
+		if (is.readUnsignedShort() > version)
+			throw new IOException("Incompatible version");
+
+		int count = is.readUnsignedByte();
+		Map<String, Object> values = new LinkedHashMap<String, Object>();
+		while (--count >= 0) {
+			String key = is.readUTF();
+			byte type = is.readByte();
+			if (type == TypeInt)
+				values.put(key, Integer.valueOf(is.readInt()));
+			else
+			if (type == TypeString)
+				values.put(key, is.readUTF());
+			else
+				throw new IOException("Unknown value type");
+		}
+		return values;
+	}
+
+	public static boolean isLegacy(byte[] data, int length) {
+		// GZIP magic
+		return (length >= 2 && data[0] == (byte)0x1f && data[1] == (byte)0x8b);
+	}
+
+	public static Map<String, Object> decodeLegacy(byte[] data, int length) throws IOException {
+		ObjectInputStream ois = null;
+		Map<String, Object> allValues = new LinkedHashMap<String, Object>();
+
+		try {
+			ois = new ObjectInputStream(
+					new GZIPInputStream(new ByteArrayInputStream(data, 0, length)));
+			byte[] sgn = new byte[2];
+			ois.readFully(sgn);
+			if (!Arrays.equals(sgn, legacySignature))
+				throw new IOException("Wrong signature");
+
+			if (ois.readUnsignedShort() > legacyVersion)
+				throw new IOException("Incompatible version");
+
+			for (;;)
+				allValues.put(ois.readUTF(), ois.readObject());
+
+		} catch (EOFException ex) {
+		} catch (ClassNotFoundException ex) {
+			throw new IOException("Unexpected value class");
+		} finally {
+			if (ois != null)
+				try {ois.close();} catch (IOException ex) {}
+		}
+		return allValues;
+	}
+}
@@ -19,6 +19,8 @@
 
 package com.palmcrust.yawadb;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Timer;
 import java.util.TimerTask;
 
@@ -34,7 +36,6 @@ import android.os.Handler;
 import android.view.KeyEvent;
 import android.view.View;
 import android.widget.TextView;
-import android.widget.Toast;
 
 import com.palmcrust.yawadb.StatusAnalyzer.Status;
 
@@ -46,37 +47,52 @@ public class PopupActivity extends Activity  {
 	private TimerTask ttask;
 	protected boolean asWidget = false;
 
-	private Thread adbThread;
+	private boolean adbChanging;
 	private BroadcastReceiver bcastReceiver;
 	protected StatusAnalyzer analyzer;
+	// What is shown, from our analyses or anyone else's
+	private volatile StatusSnapshot snapshot;
+	private Handler uiHandler;
+	private boolean refreshing = false;
+	private boolean refreshPending = false;
+	private List<Runnable> afterRefresh = new ArrayList<Runnable>();
 
 	@Override
 	protected void onCreate(Bundle savedInstanceState) {
 		super.onCreate(savedInstanceState);
+		uiHandler = new Handler();
 
-		StatusAnalyzer wAnalyzer = (StatusAnalyzer) getIntent().getSerializableExtra(YawAdbConstants.StatusAnalyzerExtra);
-		if (wAnalyzer == null) {
-			analyzer = new StatusAnalyzer(this);
-			analyzer.analyze();
-		} else {
+		analyzer = new StatusAnalyzer(this);
+		snapshot = StatusAnalyzer.getCurrent();
+		StatusSnapshot passed = getIntent().getParcelableExtra(YawAdbConstants.SnapshotExtra);
+		if (passed != null) {
 			asWidget = true;
-			analyzer = new StatusAnalyzer(this, wAnalyzer);
+			// Ours may know nothing yet, if we run in another process
+			if (passed.getTime() > snapshot.getTime())
+				snapshot = passed;
 		}
+		StatusAnalyzer.addListener(statusListener, getMainLooper());
 		
 		setContentView(R.layout.list);
-		adbThread = null;
+		adbChanging = false;
 		ttask = null;
 		
 		timer = new Timer();
 		
-		refreshText(); 
+		// Shows what we already know at once, then verifies it, 
+		// unless it has just been obtained
+		if (snapshot.isFresh(StatusAnalyzer.RecentResultAge))
+			showStatus(false);
+		else
+			refreshText(); 
 
 		bcastReceiver= new PopupActivityBroadcastReceiver(this);
 		IntentFilter filter = new IntentFilter();
-		filter.addAction(YawAdbConstants.AdbModeChangedAction);
 		filter.addAction(Intent.ACTION_AIRPLANE_MODE_CHANGED); 
 		filter.addAction(ConnectivityManager.CONNECTIVITY_ACTION);
 		registerReceiver(bcastReceiver, filter);
+		EventBus.getDefault().subscribe(YawAdbEvents.AdbModeChanged.class, 
+				getMainLooper(), modeChangedSubscriber);
 		
 
 		findViewById(R.id.actConfig).setOnClickListener(clickListener);
@@ -84,46 +100,133 @@ public class PopupActivity extends Activity  {
 	}
 
 	protected void refreshStatus() {
-		Intent bcastedIntent = new Intent(YawAdbConstants.RefreshStatusAction);
-		sendBroadcast(bcastedIntent);
+		EventBus.getDefault().post(new YawAdbEvents.RefreshStatus());
 	}
 	
 	protected void refreshText() {	
-		analyzer.analyze();
-			
+		refreshText(null);
+	}
+
+	// The analysis runs in background, meanwhile the last known status
+	// is shown as being refreshed. 'then' is run in UI thread afterwards.
+	protected synchronized void refreshText(Runnable then) {
+		if (analyzer == null) return;
+		if (then != null) afterRefresh.add(then);
+		showStatus(true);
+
+		if (refreshing) 
+			refreshPending = true;
+		else {
+			refreshing = true;
+			new RefreshThread(analyzer).start();
+		}
+	}
+
+	protected class RefreshThread extends Thread {
+		private StatusAnalyzer analyzer;
+
+		public RefreshThread(StatusAnalyzer analyzer) {
+			super();
+			this.analyzer = analyzer;
+		}
+
+		public void run() {
+			for (;;) {
+				analyzer.analyze(StatusAnalyzer.RecentResultAge);
+				updateSnapshot(analyzer.getSnapshot());
+				synchronized(PopupActivity.this) {
+					if (!refreshPending) {
+						refreshing = false;
+						break;
+					}
+					refreshPending = false;
+				}
+			}
+			uiHandler.post(refreshDone);
+		}
+	}
+
+	// A newer one may have come from the listener meanwhile
+	private synchronized void updateSnapshot(StatusSnapshot newSnapshot) {
+		if (newSnapshot.getTime() >= snapshot.getTime())
+			snapshot = newSnapshot;
+	}
+
+	// Changes found by the widget service or by a mode change are shown
+	// at once, without analysing again
+	private final StatusAnalyzer.Listener statusListener = new StatusAnalyzer.Listener() {
+		public void onStatusChanged(StatusSnapshot changed) {
+			updateSnapshot(changed);
+			statusChanged.run();
+		}
+	};
+
+	private final Runnable statusChanged = new Runnable() {
+		public void run() {
+			boolean inProgress;
+			synchronized(PopupActivity.this) {
+				if (analyzer == null) return;
+				inProgress = refreshing;
+			}
+			showStatus(inProgress);
+		}
+	};
+
+	private final Runnable refreshDone = new Runnable() {
+		public void run() {
+			Runnable[] actions;
+			synchronized(PopupActivity.this) {
+				// Terminated, or another refresh has started since
+				if (analyzer == null || refreshing) return;
+				actions = afterRefresh.toArray(new Runnable[afterRefresh.size()]);
+				afterRefresh.clear();
+			}
+			showStatus(false);
+			for (Runnable action : actions) 
+				action.run();
+		}
+	};
+
+	protected void showStatus(boolean inProgress) {	
 		Resources rsrc = getResources();
 		
 		TextView tv = (TextView) findViewById(R.id.status);
 		boolean toggleModeEnabled = true; 
 		int colorResId = R.color.itemDisabledBkgr;
 
-		StatusAnalyzer.Status stat = analyzer.getStatus(); 
+		StatusSnapshot shown = snapshot;
+		StatusAnalyzer.Status stat = shown.getStatus(); 
 		
+		String text;
 		switch(stat) {
 			case UP:
-				tv.setText(rsrc.getString(R.string.actStatUp,
-						analyzer.evaluateADBConnectString()));
+				text = rsrc.getString(R.string.actStatUp,
+						shown.evaluateADBConnectString());
 				colorResId = R.color.itemEnabledBkgr;
 				break;
 				
 			case DOWN:
-				tv.setText(R.string.actStatDown);
+				text = rsrc.getString(R.string.actStatDown);
 				break;
 				
 			case NO_ADBD:
-				tv.setText(R.string.actNoAdbd);
+				text = rsrc.getString(R.string.actNoAdbd);
 				toggleModeEnabled = false;
 				break;
 
 			case NO_NETWORK:	
-				tv.setText(R.string.actNoNetwork);
-				toggleModeEnabled = analyzer.isWirelessActive();
+				text = rsrc.getString(R.string.actNoNetwork);
+				toggleModeEnabled = shown.isWirelessActive();
 				break;
 				
 			default:	
-				tv.setText(R.string.actUndefined);
+				text = rsrc.getString(inProgress ? R.string.msgRefreshing : R.string.actUndefined);
 				toggleModeEnabled = false;
 		}
+
+		if (inProgress && stat != Status.UNDEFINED)
+			text += "\n" + rsrc.getString(R.string.msgRefreshing);
+		tv.setText(text);
 		
 		tv.setOnClickListener(clickListener);
 		tv.setBackgroundColor(rsrc.getColor(colorResId));
@@ -182,8 +285,7 @@ public class PopupActivity extends Activity  {
 		public void onClick(View view) {
 			switch(view.getId()) {
 				case R.id.status:
-					Utils.showTooltip(
-						PopupActivity.this, R.string.msgRefreshing, Toast.LENGTH_SHORT);
+					StatusAnalyzer.invalidate(StatusAnalyzer.ProbeAll);
 					refreshText();
 					break;
 					
@@ -215,7 +317,7 @@ public class PopupActivity extends Activity  {
 	
 	@Override
 	public boolean onKeyDown(int keyCode, KeyEvent event) {
-		if (keyCode == KeyEvent.KEYCODE_BACK && adbThread != null) {
+		if (keyCode == KeyEvent.KEYCODE_BACK && adbChanging) {
 			terminate();
 			finish();
 			return true;
@@ -245,14 +347,15 @@ public class PopupActivity extends Activity  {
 			unregisterReceiver(bcastReceiver);
 			bcastReceiver = null;
 		}
+		EventBus.getDefault().unsubscribe(modeChangedSubscriber);
 		
-		if (adbThread != null) {
-			adbThread.interrupt();
-			adbThread = null;
-		}
+		StatusAnalyzer.removeListener(statusListener);
+
+		// A change under way is made anyway, we just don't wait for it
+		ModeChangeQueue.getDefault().cancel(modeChangeListener);
+		adbChanging = false;
 
-		if (analyzer != null) {
-			analyzer.interrupt();
+		synchronized(this) {
 			analyzer = null;
 		}
 	}
@@ -261,26 +364,19 @@ public class PopupActivity extends Activity  {
 	protected void onActivityResult(int requestCode, int resultCode, Intent data) {
 		super.onActivityResult(requestCode, resultCode, data);
 		if (requestCode == ConfigActivityRequestCode) {
-			sendBroadcast(new Intent(YawAdbConstants.OptionsChangedAction));
+			// The widget service has been told by ConfigActivity
 			if (data != null) {
 				boolean newAutoUsb = data.getBooleanExtra(YawAdbConstants.NewAutoUsbExtra, false);
 				boolean newPort= data.getBooleanExtra(YawAdbConstants.NewPortNumberExtra, false);
 			
 				if (newAutoUsb || newPort) {
-					refreshText();
-				
-					switch(analyzer.getStatus()) {
-						case NO_NETWORK:
-							if (newAutoUsb && analyzer.isWirelessActive())
-								changeAdbConnection(false, false);
-							break;
-						
-						case UP:	
-							if (newPort)
-								changeAdbConnection(true, false);
-
-						default:	
-					}
+					final boolean autoUsbChanged = newAutoUsb;
+					final boolean portChanged = newPort;
+					refreshText(new Runnable() {
+						public void run() {
+							applyNewOptions(autoUsbChanged, portChanged);
+						}
+					});
 				}
 			}
 				
@@ -288,17 +384,37 @@ public class PopupActivity extends Activity  {
 
 	}
 
-	protected synchronized void changeAdbConnection(boolean enable, boolean explicit) {
-		if (adbThread == null || !adbThread.isAlive()) {
-			adbThread = new AdbModeChanger(this, enable, explicit);
-			adbThread.start();
+	protected void applyNewOptions(boolean newAutoUsb, boolean newPort) {
+		StatusSnapshot current = snapshot;
+		switch(current.getStatus()) {
+			case NO_NETWORK:
+				if (newAutoUsb && current.isWirelessActive())
+					changeAdbConnection(false, false);
+				break;
+			
+			case UP:	
+				if (newPort)
+					changeAdbConnection(true, false);
+
+			default:	
 		}
+	}
+
+	// Repeated requests are coalesced, see ModeChangeQueue
+	protected synchronized void changeAdbConnection(boolean enable, boolean explicit) {
+		adbChanging = true;
+		ModeChangeQueue.getDefault().submit(this, enable, explicit, modeChangeListener);
 	}		 
 
+	private final ModeChangeQueue.Listener modeChangeListener = new ModeChangeQueue.Listener() {
+		public void onModeChangeDone(boolean enable, boolean succeeded) {
+			synchronized(PopupActivity.this) {
+				adbChanging = false;
+			}
+		}
+	};
+
 	private static class PopupActivityBroadcastReceiver extends BroadcastReceiver {
-		private int AfterUpdateTimeoutUp=3000;
-		private int AfterUpdateTimeoutDown=1000;
-		
 		PopupActivity activity;
 		public PopupActivityBroadcastReceiver(PopupActivity activity) {
 			this.activity = activity;
@@ -306,16 +422,31 @@ public class PopupActivity extends Activity  {
 		
 		@Override
 		public void onReceive(Context context, Intent intent) {
+			StatusAnalyzer.invalidate(StatusAnalyzer.probesChangedBy(intent.getAction()));
 			activity.refreshText();
-			if (activity.asWidget && !activity.isFinishing() && 
-				intent.getAction().equals(YawAdbConstants.AdbModeChangedAction) &&
-				intent.getBooleanExtra(YawAdbConstants.ExplicitExtra, false)) { 
-				(new Handler()).postDelayed(new Runnable() {
-					public void run() {activity.finish();}},
-					(activity.analyzer.getStatus() == Status.UP) ? AfterUpdateTimeoutUp : AfterUpdateTimeoutDown);
-			}	
 		}
 	}
 
+	private static final int AfterUpdateTimeoutUp=3000;
+	private static final int AfterUpdateTimeoutDown=1000;
+
+	private final EventBus.Subscriber<YawAdbEvents.AdbModeChanged> modeChangedSubscriber = 
+			new EventBus.Subscriber<YawAdbEvents.AdbModeChanged>() {
+		public void onEvent(YawAdbEvents.AdbModeChanged event) {
+			StatusAnalyzer.invalidate(StatusAnalyzer.probesChangedBy(event));
+			Runnable then = null;
+			if (asWidget && !isFinishing() && event.isExplicit()) { 
+				then = new Runnable() {
+					public void run() {
+						uiHandler.postDelayed(new Runnable() {
+							public void run() {finish();}},
+							(snapshot.getStatus() == Status.UP) ? AfterUpdateTimeoutUp : AfterUpdateTimeoutDown);
+					}
+				};
+			}	
+			refreshText(then);
+		}
+	};
+
 }
 
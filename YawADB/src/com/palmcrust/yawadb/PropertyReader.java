@@ -0,0 +1,135 @@
+/*
+   PropertyReader. Reads Android system properties.
+   Copyright (C) 2013 Michael Glickman (Australia) <palmcrust@gmail.com>
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>
+*/
+
+package com.palmcrust.yawadb;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.lang.reflect.Method;
+
+public abstract class PropertyReader {
+	private static PropertyReader defaultReader = null;
+
+	// Returns property value, or null if the property is not set
+	public abstract String get(String name);
+
+	// Returns values in the order of names, null for the ones not set
+	public String[] getAll(String... names) {
+		String[] values = new String[names.length];
+		for (int i = 0; i < names.length; i++)
+			values[i] = get(names[i]);
+		return values;
+	}
+
+	// In-process reader if the platform allows it, 'getprop' otherwise
+	public static synchronized PropertyReader getDefault() {
+		if (defaultReader == null) {
+			defaultReader = ReflectiveReader.create();
+			if (defaultReader == null)
+				defaultReader = new ProcessReader();
+		}
+		return defaultReader;
+	}
+
+	//=========================================================================
+	// Uses hidden android.os.SystemProperties, which reads the property
+	// area mapped into our own process. No fork involved.
+	protected static class ReflectiveReader extends PropertyReader {
+		private Method getMethod;
+		private ProcessReader fallback = null;
+
+		private ReflectiveReader(Method getMethod) {
+			this.getMethod = getMethod;
+		}
+
+		protected static ReflectiveReader create() {
+			try {
+				return new ReflectiveReader(
+					Class.forName("android.os.SystemProperties").getMethod("get", String.class));
+			} catch (Exception ex) {
+				return null;
+			}
+		}
+
+		@Override
+		public String get(String name) {
+			try {
+				String value = (String) getMethod.invoke(null, name);
+				return Utils.isEmpty(value) ? null : value;
+			} catch (Exception ex) {
+				synchronized(this) {
+					if (fallback == null) fallback = new ProcessReader();
+				}
+				return fallback.get(name);
+			}
+		}
+	}
+
+	//=========================================================================
+	protected static class ProcessReader extends PropertyReader {
+		@Override
+		public String get(String name) {
+			 long start = System.nanoTime();
+			 Utils.ExecResult res = Utils.execute(Utils.ExecTimeout, "getprop", name);
+			 if (res==null) return null;
+			 BufferedReader rd = res.getReader();
+			 String line=null;
+			 try { line = rd.readLine();
+			 	if (line != null) line = line.split("\r")[0];
+			 } catch(IOException ex) {ex.printStackTrace();}
+			 try { rd.close(); } catch(IOException ex) {}
+			 Metrics.getprop.recordSince(start);
+			 return (line != null && line.length() > 0) ? line : null;
+		}
+
+		// A single 'getprop' without arguments lists all properties as
+		// "[name]: [value]", so several values cost one fork.
+		@Override
+		public String[] getAll(String... names) {
+			if (names.length <= 1) return super.getAll(names);
+
+			String[] values = new String[names.length];
+			long start = System.nanoTime();
+			Utils.ExecResult res = Utils.execute(Utils.ExecTimeout, "getprop");
+			if (res==null) return values;
+			BufferedReader rd = res.getReader();
+			try {
+				String line;
+				while((line=rd.readLine())!=null) {
+					int nameEnd = line.indexOf("]: [");
+					if (!line.startsWith("[") || nameEnd < 0) continue;
+					String name = line.substring(1, nameEnd);
+					for (int i = 0; i < names.length; i++) {
+						if (name.equals(names[i])) {
+							int valueEnd = line.lastIndexOf(']');
+							if (valueEnd > nameEnd + 4)
+								values[i] = line.substring(nameEnd + 4, valueEnd);
+							break;
+						}
+					}
+				}
+			} catch(IOException ex) {
+				ex.printStackTrace();
+			} finally {
+				try { rd.close(); } catch(IOException ex) {}
+				Metrics.getprop.recordSince(start);
+			}
+			return values;
+		}
+	}
+}
@@ -0,0 +1,161 @@
+/*
+   RestartTuner. Chooses the faster adbd restart method.
+   Copyright (C) 2013 Michael Glickman (Australia) <palmcrust@gmail.com>
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>
+*/
+
+package com.palmcrust.yawadb;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+
+import android.content.Context;
+
+// Whether 'stop adbd' or 'kill -9' gets adbd listening again sooner
+// depends on the ROM. We keep the running average of restart-to-listening
+// time of each method in a small file and use the faster one that works.
+// Every ExploreInterval-th restart uses the other method, so the history
+// follows changes (e.g. a ROM update).
+public class RestartTuner {
+	public static final int MethodStop = 0;
+	public static final int MethodKill = 1;
+	private static final int MethodCount = 2;
+	private static final String[] MethodNames = {"stop", "kill"};
+
+	private static final String HistoryFileName = "restart.dat";
+	private static final String TempFileName = "restart.tmp";
+	private static final byte[] signature = {'Y', 'R'};
+	private static final short version = 1;
+
+	private static final int ExploreInterval = 8;
+	// After failing that many times in a row, a method is only explored
+	private static final int MaxFailures = 2;
+	// Weight (%) of a new sample in the running average
+	private static final int SampleWeight = 25;
+
+	private final Context context;
+	private final int[] samples = new int[MethodCount];
+	private final int[] avgTime = new int[MethodCount];
+	private final int[] failures = new int[MethodCount];
+	private int restarts = 0;
+
+	private RestartTuner(Context context) {
+		this.context = context;
+	}
+
+	// A damaged or missing history is started anew
+	public static RestartTuner load(Context context) {
+		RestartTuner tuner = new RestartTuner(context.getApplicationContext());
+		DataInputStream is = null;
+		try {
+			is = new DataInputStream(context.openFileInput(HistoryFileName));
+			if (is.readByte() != signature[0] || is.readByte() != signature[1] ||
+					is.readUnsignedShort() > version)
+				throw new IOException("Wrong restart history format");
+			tuner.restarts = is.readInt();
+			for (int m = 0; m < MethodCount; m++) {
+				tuner.samples[m] = is.readInt();
+				tuner.avgTime[m] = is.readInt();
+				tuner.failures[m] = is.readInt();
+			}
+		} catch (FileNotFoundException ex) {
+		} catch (IOException ex) {
+			ex.printStackTrace();
+			tuner = new RestartTuner(context.getApplicationContext());
+		} finally {
+			if (is != null)
+				try {is.close();} catch (IOException ex) {}
+		}
+		return tuner;
+	}
+
+	// canKill: adbd pid is known
+	public synchronized int choose(boolean canKill) {
+		if (!canKill) return MethodStop;
+		restarts++;
+
+		// Methods not measured yet come first
+		for (int m = 0; m < MethodCount; m++)
+			if (samples[m] == 0 && failures[m] < MaxFailures) return m;
+
+		int best = -1;
+		for (int m = 0; m < MethodCount; m++)
+			if (failures[m] < MaxFailures && (best < 0 || avgTime[m] < avgTime[best]))
+				best = m;
+		// Nothing works lately, take the one failing less
+		if (best < 0)
+			best = (failures[MethodStop] <= failures[MethodKill]) ? MethodStop : MethodKill;
+
+		return (restarts % ExploreInterval == 0) ? getAlternative(best) : best;
+	}
+
+	public static int getAlternative(int method) {
+		return (method == MethodStop) ? MethodKill : MethodStop;
+	}
+
+	public synchronized void recordSuccess(int method, long millis) {
+		int time = (int) Math.min(millis, Integer.MAX_VALUE);
+		avgTime[method] = (samples[method] == 0) ? time :
+			(int) (((long) avgTime[method] * (100 - SampleWeight) + (long) time * SampleWeight) / 100);
+		if (samples[method] < Integer.MAX_VALUE) samples[method]++;
+		failures[method] = 0;
+		save();
+	}
+
+	public synchronized void recordFailure(int method) {
+		if (failures[method] < Integer.MAX_VALUE) failures[method]++;
+		save();
+	}
+
+	public synchronized void dump(PrintWriter pw) {
+		pw.println("adbd restarts (auto)");
+		for (int m = 0; m < MethodCount; m++)
+			pw.printf("  %-16s %6d  avg %d  failing %d%n", MethodNames[m],
+				Integer.valueOf(samples[m]), Integer.valueOf(avgTime[m]), Integer.valueOf(failures[m]));
+		pw.flush();
+	}
+
+	// Written aside and renamed, like the options
+	private void save() {
+		DataOutputStream os = null;
+		try {
+			FileOutputStream fos = context.openFileOutput(TempFileName, Context.MODE_PRIVATE);
+			os = new DataOutputStream(fos);
+			os.write(signature);
+			os.writeShort(version);
+			os.writeInt(restarts);
+			for (int m = 0; m < MethodCount; m++) {
+				os.writeInt(samples[m]);
+				os.writeInt(avgTime[m]);
+				os.writeInt(failures[m]);
+			}
+			os.flush();
+			fos.getFD().sync();
+			os.close();
+			os = null;
+			context.getFileStreamPath(TempFileName).renameTo(
+					context.getFileStreamPath(HistoryFileName));
+		} catch (IOException ex) {
+			ex.printStackTrace();
+		} finally {
+			if (os != null)
+				try {os.close();} catch (IOException ex) {}
+		}
+	}
+}
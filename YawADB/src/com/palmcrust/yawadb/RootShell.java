@@ -0,0 +1,235 @@
+/*
+   RootShell. Long-lived (root) shell session shared by all components.
+   Copyright (C) 2013 Michael Glickman (Australia) <palmcrust@gmail.com>
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>
+*/
+
+package com.palmcrust.yawadb;
+
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+
+// Starting 'su' costs a superuser-manager round trip, so we start it once
+// and keep feeding it commands. Every batch is followed by an echo of a
+// unique marker and the exit code of the last command, which tells us
+// where the batch output ends.
+public class RootShell {
+	public static final int ExitFailure = -1;
+	// Leaves time to answer the superuser manager prompt
+	public static final int ShellTimeout = 20000;
+	private static final String MarkerPrefix = "__YAWADB_END_";
+
+	private static RootShell session = null;
+
+	private final String shellPath;
+	// Read without the lock by closeSession()
+	private volatile Process process;
+	private DataOutputStream stdin;
+	private BufferedReader stdout;
+	private int serial = 0;
+
+	private RootShell(String shellPath) {
+		this.shellPath = shellPath;
+	}
+
+	// Returns the shared session, replacing it if the shell path has changed
+	public static synchronized RootShell getSession(String shellPath) {
+		if (session == null || !session.shellPath.equals(shellPath)) {
+			if (session != null) session.close();
+			session = new RootShell(shellPath);
+		}
+		return session;
+	}
+
+	// Called in the main thread, so it doesn't wait for a command running
+	// in the session (up to ShellTimeout). The shell is destroyed at once,
+	// which fails the command, and the session is closed in background.
+	public static void closeSession() {
+		final RootShell closed;
+		synchronized(RootShell.class) {
+			closed = session;
+			session = null;
+		}
+		if (closed == null) return;
+
+		Process p = closed.process;
+		if (p != null) p.destroy();
+		Thread closer = new Thread(new Runnable() {
+			public void run() {
+				closed.close();
+			}
+		}, "YawADB shell close");
+		closer.setDaemon(true);
+		closer.start();
+	}
+
+	// Runs the commands in the session, returns the exit code of the last one
+	// (just as the shell itself would on 'exit'), or ExitFailure if the shell
+	// couldn't be started, died while executing or didn't finish in time.
+	public int execute(String... cmdSequence) throws InterruptedException {
+		return execute(ShellTimeout, cmdSequence);
+	}
+
+	public int execute(int timeout, String[] cmdSequence) throws InterruptedException {
+		return execute(timeout, cmdSequence, null);
+	}
+
+	// Same, but every command is followed by an echo of a step marker and
+	// its exit code. The batch is still sent at once and run to the end.
+	// The System.nanoTime() each step has been reported at is stored
+	// in stepEnds (0 if it hasn't been reached).
+	// Returns the first non-zero exit code, or 0 if all commands succeeded.
+	public synchronized int execute(int timeout, String[] cmdSequence, long[] stepEnds) 
+			throws InterruptedException {
+		if (Thread.interrupted()) throw new InterruptedException();
+		long deadline = System.nanoTime() + timeout * 1000000L;
+
+		boolean restarted = false;
+		if (!isAlive()) {
+			if (!start()) return ExitFailure;
+			restarted = true;
+		}
+
+		String marker = MarkerPrefix + (++serial) + ' ';
+		String stepMarker = null;
+		if (stepEnds != null) {
+			stepMarker = MarkerPrefix + serial + "_step ";
+			String[] stepped = new String[cmdSequence.length * 2];
+			for (int i = 0; i < cmdSequence.length; i++) {
+				stepped[2 * i] = cmdSequence[i];
+				stepped[2 * i + 1] = "echo \"" + stepMarker + "$?\"";
+			}
+			cmdSequence = stepped;
+		}
+
+		if (!send(cmdSequence, marker)) {
+			// Session died since the last call. Restart it once,
+			// no command has reached it so it's safe to resend.
+			if (restarted || !start() || !send(cmdSequence, marker)) {
+				close();
+				return ExitFailure;
+			}
+		}
+
+		// The shell is destroyed at the deadline, which ends the wait
+		Utils.ProcessWatchdog watchdog = Utils.watch(process, (deadline - System.nanoTime()) / 1000000);
+		try {
+			int exitCode = awaitMarker(marker, stepMarker, stepEnds);
+			return watchdog.hasFired() ? ExitFailure : exitCode;
+		} finally {
+			watchdog.cancel();
+		}
+	}
+
+	private boolean send(String[] cmdSequence, String marker) {
+		try {
+			for (String cmd : cmdSequence) {
+				stdin.writeBytes(cmd);
+				stdin.writeByte('\n');
+			}
+			stdin.writeBytes("echo \"" + marker + "$?\"\n");
+			stdin.flush();
+			return true;
+		} catch (IOException ex) {
+			return false;
+		}
+	}
+
+	private int awaitMarker(String marker, String stepMarker, long[] stepEnds) {
+		int step = 0;
+		int firstFailure = 0;
+		try {
+			String line;
+			while ((line = stdout.readLine()) != null) {
+				// A command may leave its output without a trailing new line
+				int pos;
+				if (stepMarker != null && (pos = line.indexOf(stepMarker)) >= 0) {
+					if (step < stepEnds.length) stepEnds[step++] = System.nanoTime();
+					int exitCode = parseExitCode(line, pos + stepMarker.length());
+					if (firstFailure == 0) firstFailure = exitCode;
+					continue;
+				}
+
+				pos = line.indexOf(marker);
+				if (pos >= 0) {
+					int exitCode = parseExitCode(line, pos + marker.length());
+					return (stepMarker == null || exitCode == ExitFailure) ? exitCode : firstFailure;
+				}
+			}
+		} catch (IOException ex) {
+			ex.printStackTrace();
+		}
+
+		// The shell has gone (permission denied?), next call will restart it
+		close();
+		return ExitFailure;
+	}
+
+	private static int parseExitCode(String line, int pos) {
+		try {
+			return Integer.parseInt(line.substring(pos).trim());
+		} catch (NumberFormatException ex) {
+			return ExitFailure;
+		}
+	}
+
+	private boolean start() {
+		close();
+		try {
+			Metrics.shellStarts.increment();
+			process = Utils.processRunner.start(true, shellPath);
+			stdin = new DataOutputStream(process.getOutputStream());
+			stdout = new BufferedReader(new InputStreamReader(process.getInputStream()));
+			return true;
+		} catch (IOException ex) {
+			ex.printStackTrace();
+			close();
+			return false;
+		}
+	}
+
+	private boolean isAlive() {
+		if (process == null) return false;
+		try {
+			process.exitValue();
+			return false;
+		} catch (IllegalThreadStateException ex) {
+			return true;
+		}
+	}
+
+	public synchronized void close() {
+		if (stdin != null) {
+			try {
+				stdin.writeBytes("exit\n");
+				stdin.flush();
+			} catch (IOException ex) {}
+			try {stdin.close();} catch(IOException ex){}
+			stdin = null;
+		}
+
+		if (stdout != null) {
+			try {stdout.close();} catch(IOException ex){}
+			stdout = null;
+		}
+
+		if (process != null) {
+			process.destroy();
+			process = null;
+		}
+	}
+}
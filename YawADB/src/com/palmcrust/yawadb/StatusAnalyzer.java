@@ -18,15 +18,30 @@
 
 package com.palmcrust.yawadb;
 
-import java.io.Serializable;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
 
 import android.content.Context;
+import android.content.Intent;
+import android.net.ConnectivityManager;
 import android.net.wifi.WifiInfo;
 import android.net.wifi.WifiManager;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
 
-public class StatusAnalyzer implements Serializable {
-	private static final long serialVersionUID = -872718362949627621L;
+public class StatusAnalyzer {
 	public static final int AnalyzeTimeout = 5000;
+	// Result age acceptable for refreshes, which don't follow a change 
+	public static final int RecentResultAge = 1000;
 
 	public static final int DumbADBPort = -1;
 	public static final int DefaultADBPort = 5555;
@@ -34,102 +49,397 @@ public class StatusAnalyzer implements Serializable {
 
 	public static final String NetworkNameDefault = "wifi";
 	public static enum Status {UNDEFINED, UP, DOWN, NO_NETWORK, NO_ADBD}
+
+	// Probe flags for invalidate()
+	public static final int ProbeIpAddress = 1;
+	public static final int ProbePort = 2;
+	public static final int ProbeAdbd = 4;
+	public static final int ProbeAll = ProbeIpAddress | ProbePort | ProbeAdbd;
 	
-	protected transient Context context; 
-	private transient AnalyzerThread anThread = null;
+	// All analyzers share a single worker, so no more than one probe
+	// runs at a time, and callers arriving meanwhile share its result.
+	private static final ExecutorService worker = 
+		Executors.newSingleThreadExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "YawADB analyzer");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	private static Future<StatusSnapshot> probeInFlight = null;
+	private static StatusSnapshot lastResult = null;
+	private static int lastResultGeneration;
+	// Incremented on invalidation, so results obtained before are not reused 
+	private static int generation = 0;
+	private static int inFlightGeneration;
+
+	public interface Listener {
+		// Called on the looper given to addListener()
+		void onStatusChanged(StatusSnapshot snapshot);
+	}
+
+	// Listeners are called on their own loopers, so the prober, which
+	// joined analyses wait for, is not held up by them
+	private static class Registration {
+		final Listener listener;
+		final Handler handler;
+		// Changes posted before removeListener() may still be queued
+		volatile boolean active = true;
+
+		Registration(Listener listener, Looper looper) {
+			this.listener = listener;
+			this.handler = new Handler(looper);
+		}
+
+		void notify(final StatusSnapshot snapshot) {
+			handler.post(new Runnable() {
+				public void run() {
+					if (!active) return;
+					try {
+						listener.onStatusChanged(snapshot);
+					} catch (RuntimeException ex) {
+						ex.printStackTrace();
+					}
+				}
+			});
+		}
+	}
+
+	// The latest snapshot, whoever has obtained it
+	private static final AtomicReference<StatusSnapshot> current = 
+		new AtomicReference<StatusSnapshot>(StatusSnapshot.UNDEFINED);
+	private static final CopyOnWriteArrayList<Registration> listeners = 
+		new CopyOnWriteArrayList<Registration>();
+
+	// Connectivity broadcasts are reliable, but adbd may be restarted
+	// from the outside (e.g. 'adb tcpip'), which we are not notified of.
+	private static final ProbeCache<String> ipAddressCache = new ProbeCache<String>(60000);
+	private static final ProbeCache<Integer> portCache = new ProbeCache<Integer>(10000);
+	private static final ProbeCache<Integer> adbdPidCache = new ProbeCache<Integer>(10000);
+
+	protected Context context; 
 	
-	protected Status curStatus = Status.UNDEFINED;
-	protected String ipAddress;
-	protected int portNumber;
+	// The result of the last analysis made by this analyzer
+	protected volatile StatusSnapshot snapshot = StatusSnapshot.UNDEFINED;
 	
 	
 	public StatusAnalyzer(Context context) {
 		this.context = context;
 	}
 
-	public StatusAnalyzer(Context context, StatusAnalyzer wAnalyzer) {
-		this(context);
-		curStatus = wAnalyzer.curStatus;
-		ipAddress = wAnalyzer.ipAddress;
-		portNumber = wAnalyzer.portNumber; 
-	}
-
 	
 	public boolean analyze() {
-		
-		synchronized(this) {
-			if (anThread == null || !anThread.isAlive()) { 
-				anThread = new AnalyzerThread();
-				anThread.start();
+		return analyze(0);
+	}
+
+	// maxAge: how old (ms) a result of a previous probe may be to be reused
+	public boolean analyze(int maxAge) {
+		long start = System.nanoTime();
+		StatusSnapshot result = obtainResult(context.getApplicationContext(), maxAge);
+		Metrics.analysis.recordSince(start);
+		if (result == null) {
+			Metrics.analysisFailed.increment();
+			return false;
+		}
+
+		snapshot = result;
+		return (result.getStatus() != Status.UNDEFINED);
+	}
+
+	public static StatusSnapshot getCurrent() {
+		return current.get();
+	}
+
+	// Taken as the latest snapshot until one is obtained, listeners are
+	// not told of it (e.g. the stored status when the widget starts)
+	public static void seedCurrent(StatusSnapshot snapshot) {
+		current.compareAndSet(StatusSnapshot.UNDEFINED, snapshot);
+	}
+
+	// The listener hears of changes found by any analysis or mode change,
+	// on the looper given. Added once, however many times it's called.
+	public static synchronized void addListener(Listener listener, Looper looper) {
+		for (Registration registration : listeners)
+			if (registration.listener == listener) return;
+		listeners.add(new Registration(listener, looper));
+	}
+
+	public static synchronized void removeListener(Listener listener) {
+		for (Registration registration : listeners)
+			if (registration.listener == listener) {
+				registration.active = false;
+				listeners.remove(registration);
+			}
+	}
+
+	// An older snapshot than the current one is dropped. Listeners are
+	// told only if the state has changed, it takes the prober no time.
+	private static void publish(StatusSnapshot snapshot) {
+		StatusSnapshot previous;
+		do {
+			previous = current.get();
+			if (previous.getTime() > snapshot.getTime()) return;
+		} while (!current.compareAndSet(previous, snapshot));
+
+		if (!snapshot.sameStateAs(previous))
+			for (Registration registration : listeners)
+				registration.notify(snapshot);
+	}
+
+	// Drops cached probe results (ProbeXXX flags), which may have been
+	// changed by an event. Next analysis will probe them again.
+	public static void invalidate(int probes) {
+		if (probes == 0) return;
+		if ((probes & ProbeIpAddress) != 0) ipAddressCache.invalidate();
+		if ((probes & ProbePort) != 0) portCache.invalidate();
+		if ((probes & ProbeAdbd) != 0) adbdPidCache.invalidate();
+		synchronized(StatusAnalyzer.class) {
+			generation++;
+		}
+	}
+
+	// The mode changer knows the port, whether adbd runs and listens, when
+	// it's done. It's published at once, and passed with the event, so
+	// the analyses that follow don't have to probe again.
+	public static StatusSnapshot publishVerifiedState(Context context, 
+			int portNumber, int adbdPid, boolean listening, boolean gated) {
+		String ipAddress = ipAddressFromWifiManager(context.getApplicationContext());
+		Status status;
+		if (ipAddress == null)
+			status = Status.NO_NETWORK;
+		else
+		if (adbdPid < 0)
+			status = Status.NO_ADBD;
+		else
+			status = (portNumber > 0 && listening && !gated) ? Status.UP : Status.DOWN;
+
+		StatusSnapshot verified = new StatusSnapshot(status, ipAddress, portNumber, adbdPid, 
+				gated, SystemClock.elapsedRealtime());
+		long time = verified.getTime();
+		synchronized(StatusAnalyzer.class) {
+			generation++;
+			ipAddressCache.seed(ipAddress, time);
+			portCache.seed(portNumber, time);
+			adbdPidCache.seed(adbdPid, time);
+			lastResult = verified;
+			lastResultGeneration = generation;
+		}
+		publish(verified);
+		return verified;
+	}
+
+	// Probes affected by a broadcast action
+	public static int probesChangedBy(String action) {
+		if (action.equals(ConnectivityManager.CONNECTIVITY_ACTION))
+			return ProbeIpAddress;
+		if (action.equals(Intent.ACTION_AIRPLANE_MODE_CHANGED))
+			return ProbeAll;
+		return 0;
+	}
+
+	// Nothing, if the changer has verified the state
+	public static int probesChangedBy(YawAdbEvents.AdbModeChanged event) {
+		return (event.getVerified() == null) ? ProbePort | ProbeAdbd : 0;
+	}
+
+	// Probes whose results decide the status. Listening is checked anew
+	// every time, it is not cached.
+	public static int probesBehind(Status status) {
+		switch(status) {
+			case NO_NETWORK:
+				return ProbeIpAddress;
+			case NO_ADBD:
+				return ProbeAdbd;
+			case UP:
+			case DOWN:
+				return ProbePort | ProbeAdbd;
+			default:
+				return ProbeAll;
+		}
+	}
+
+	private static StatusSnapshot obtainResult(Context appContext, int maxAge) {
+		Future<StatusSnapshot> future;
+		synchronized(StatusAnalyzer.class) {
+			if (maxAge > 0 && lastResult != null && lastResultGeneration == generation && 
+					SystemClock.elapsedRealtime() - lastResult.getTime() <= maxAge) {
+				Metrics.analysisReused.increment();
+				return lastResult;
 			}
+			
+			if (probeInFlight == null || probeInFlight.isDone() || 
+					inFlightGeneration != generation) {
+				probeInFlight = worker.submit(new Prober(appContext));
+				inFlightGeneration = generation;
+			} else
+				Metrics.analysisJoined.increment();
+			future = probeInFlight;
 		}
 
 		try {
-			anThread.join(AnalyzeTimeout);
-			return (curStatus != Status.UNDEFINED);
+			return future.get(AnalyzeTimeout, TimeUnit.MILLISECONDS);
 		} catch (InterruptedException ex) {
-			return false;
+		} catch (TimeoutException ex) {
+		} catch (ExecutionException ex) { 
+			ex.printStackTrace();
 		}
+		return null;
 	}
 
-	protected class AnalyzerThread extends Thread {
-		public void run() {
-			curStatus = Status.UNDEFINED;
-			
-			String portNumberStr = Utils.getProp("service.adb.tcp.port");
-			portNumber = -1;
-			if (!Utils.isEmpty(portNumberStr)) 
-				try {
-					portNumber = Integer.parseInt(portNumberStr);
-				} catch(NumberFormatException ex) {	}
 
-			ipAddress = ipAddressFromWifiManager();
+	// A value obtained before invalidation is not stored, as the event
+	// could have happened while it was being probed.
+	private static class ProbeCache<T> {
+		private final int ttl;
+		private T value;
+		private long time;
+		private boolean valid = false;
+		private int epoch = 0;
 
-			if (ipAddress == null) 	
-				curStatus = Status.NO_NETWORK; 
-			else
-			// Is adbd running?
-			if (Utils.getAdbdPid() < 0)
-				curStatus = Status.NO_ADBD;
-			// Got IP address and adbd is running
-			else
-				curStatus =  (portNumber > 0) ? Status.UP : Status.DOWN;
+		ProbeCache(int ttl) {
+			this.ttl = ttl;
+		}
+
+		synchronized boolean isValid(long now) {
+			return valid && (now - time < ttl);
+		}
+
+		synchronized T get() {
+			return value;
+		}
+
+		synchronized int getEpoch() {
+			return epoch;
+		}
+
+		synchronized void set(T value, long now, int epoch) {
+			if (epoch != this.epoch) return;
+			this.value = value;
+			time = now;
+			valid = true;
+		}
+
+		synchronized void invalidate() {
+			valid = false;
+			epoch++;
+		}
+
+		// A value known for sure, probes under way won't override it
+		synchronized void seed(T value, long time) {
+			epoch++;
+			this.value = value;
+			this.time = time;
+			valid = true;
 		}
 	}
-	
-	public void interrupt() {
-		synchronized(this) {
-			if (anThread != null)
-				anThread.interrupt();
+
+	private static class Prober implements Callable<StatusSnapshot> {
+		private Context appContext;
+		// Generation the probe started at
+		private int generation;
+
+		Prober(Context appContext) {
+			this.appContext = appContext;
+		}
+
+		public StatusSnapshot call() {
+			long start = System.nanoTime();
+			Status status;
+			// The snapshot is as old as the first thing probed
+			long now = SystemClock.elapsedRealtime();
+			synchronized(StatusAnalyzer.class) {
+				generation = StatusAnalyzer.generation;
+			}
+
+			int portNumber;
+			if (portCache.isValid(now)) 
+				portNumber = portCache.get();
+			else {
+				int epoch = portCache.getEpoch();
+				String portNumberStr = Utils.getProp("service.adb.tcp.port");
+				portNumber = -1;
+				if (!Utils.isEmpty(portNumberStr)) 
+					try {
+						portNumber = Integer.parseInt(portNumberStr);
+					} catch(NumberFormatException ex) {	}
+				portCache.set(portNumber, now, epoch);
+			}
+
+			// Kept in memory, no need to cache
+			boolean gated = FirewallGate.getDefault(appContext).isGated(portNumber);
+
+			String ipAddress;
+			if (ipAddressCache.isValid(now))
+				ipAddress = ipAddressCache.get();
+			else {
+				int epoch = ipAddressCache.getEpoch();
+				ipAddress = ipAddressFromWifiManager(appContext);
+				ipAddressCache.set(ipAddress, now, epoch);
+			}
+
+			int adbdPid = StatusSnapshot.PidUnknown;
+			if (ipAddress == null) 	
+				status = Status.NO_NETWORK; 
+			else {
+				if (adbdPidCache.isValid(now))
+					adbdPid = adbdPidCache.get();
+				else {
+					int epoch = adbdPidCache.getEpoch();
+					adbdPid = Utils.getAdbdPid();
+					adbdPidCache.set(adbdPid, now, epoch);
+				}
+
+				// Is adbd running?
+				if (adbdPid < 0)
+					status = Status.NO_ADBD;
+				// Got IP address and adbd is running
+				else
+					status =  (portNumber > 0 && !gated && isListening(portNumber)) ? Status.UP : Status.DOWN;
+			}
+
+			StatusSnapshot result = new StatusSnapshot(status, ipAddress, portNumber, adbdPid, 
+					gated, now);
+			Metrics.probe.recordSince(start);
+			synchronized(StatusAnalyzer.class) {
+				// Invalidated while probing (e.g. a mode change), what we have
+				// read may predate it. The verified state, if any, is better.
+				if (generation != StatusAnalyzer.generation) {
+					Metrics.probeStale.increment();
+					return (lastResult != null && lastResultGeneration == StatusAnalyzer.generation) ?
+							lastResult : result;
+				}
+				lastResult = result;
+				lastResultGeneration = generation;
+			}
+			publish(result);
+			return result;
 		}
 	}
 
+	// If sockets can't be inspected, we trust the port property
+	protected static boolean isListening(int port) {
+		return (ListenDetector.getDefault().check(port) != ListenDetector.State.NOT_LISTENING);
+	}
 	
+	public StatusSnapshot getSnapshot() {
+		return snapshot;
+	}
+
 	public Status getStatus() {
-		return curStatus; 
+		return snapshot.getStatus(); 
 	}
 	
 	public boolean isWirelessActive() {
-		return (portNumber != DumbADBPort);
+		return snapshot.isWirelessActive();
 	}
 	
 	
 	public String evaluateADBConnectString() {
-		if (curStatus != Status.UP) return null; 
-
-		StringBuilder sb = new StringBuilder();
-		sb.append("adb connect ");
-		sb.append(ipAddress);
-		if (portNumber != DefaultADBPort) {
-			sb.append(':');
-			sb.append(portNumber);
-		}
-
-		return sb.toString();
+		return snapshot.evaluateADBConnectString();
 	}
 		
 
-	protected String ipAddressFromWifiManager() {
+	protected static String ipAddressFromWifiManager(Context context) {
 		WifiManager wfm = (WifiManager) context.getSystemService(Context.WIFI_SERVICE);
 		if (wfm == null) return null;
 		WifiInfo wfi = wfm.getConnectionInfo();
@@ -140,23 +450,27 @@ public class StatusAnalyzer implements Serializable {
 	}
 
 
-	private static String ipAddrToString(int ipAddress) {
+	static String ipAddrToString(int ipAddress) {
 		try {
 			Class<?> formatterClass =  Class.forName("android.text.format.Formatter");
 			return  (String) formatterClass.getMethod("formatIpAddress", int.class).invoke(null, Integer.valueOf(ipAddress));
 		} catch (Exception ex) {
-			StringBuilder sb = new StringBuilder();
-			int count = 4;
-			int tmp = ipAddress;
-			while (--count >= 0) {
-				if (sb.length()>0) sb.append('.');
-				sb.append(tmp & 0xff);
-				tmp >>>= 8;
-			}	
-			return sb.toString();
+			return formatIpAddress(ipAddress);
 		}
 	}
 
+	static String formatIpAddress(int ipAddress) {
+		StringBuilder sb = new StringBuilder();
+		int count = 4;
+		int tmp = ipAddress;
+		while (--count >= 0) {
+			if (sb.length()>0) sb.append('.');
+			sb.append(tmp & 0xff);
+			tmp >>>= 8;
+		}	
+		return sb.toString();
+	}
+
 
 	
 }
@@ -0,0 +1,81 @@
+/*
+   StatusFilter. Hysteresis between status analysis and its consumers.
+   Copyright (C) 2013 Michael Glickman (Australia) <palmcrust@gmail.com>
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>
+*/
+
+package com.palmcrust.yawadb;
+
+// While roaming, Wi-Fi has no address for a moment and the status jumps
+// to NO_NETWORK and back. A new status is published only after it has
+// lasted minStableTime ms and been seen by minConfirmations analyses in
+// a row, until then the previous one stands.
+public class StatusFilter {
+	private final int minStableTime;
+	private final int minConfirmations;
+
+	private StatusAnalyzer.Status published = null;
+	private StatusAnalyzer.Status candidate = null;
+	private long candidateSince;
+	private int confirmations;
+
+	public StatusFilter(int minStableTime, int minConfirmations) {
+		this.minStableTime = minStableTime;
+		this.minConfirmations = minConfirmations;
+	}
+
+	// Takes an analysed status, returns the one to show. The first
+	// status after creation or reset is published at once.
+	public synchronized StatusAnalyzer.Status update(StatusAnalyzer.Status status, long now) {
+		if (published == null || status == published) {
+			published = status;
+			candidate = null;
+			return published;
+		}
+
+		if (status != candidate) {
+			candidate = status;
+			candidateSince = now;
+			confirmations = 1;
+		} else
+			confirmations++;
+
+		if (confirmations >= minConfirmations && now - candidateSince >= minStableTime) {
+			published = candidate;
+			candidate = null;
+		}
+		return published;
+	}
+
+	// null until the first update
+	public synchronized StatusAnalyzer.Status getPublished() {
+		return published;
+	}
+
+	// Time (ms) to analyse again to confirm the pending status, -1 if
+	// nothing is pending
+	public synchronized long getConfirmDelay(long now) {
+		if (candidate == null) return -1;
+		long remaining = candidateSince + minStableTime - now;
+		// Lasted long enough, but not seen enough times yet
+		return (remaining > 0) ? remaining : minStableTime / Math.max(minConfirmations, 1);
+	}
+
+	// Next status will be published at once, e.g. after an explicit change
+	public synchronized void reset() {
+		published = null;
+		candidate = null;
+	}
+}
@@ -0,0 +1,143 @@
+/*
+   StatusSnapshot. The status with what it was derived from.
+   Copyright (C) 2013 Michael Glickman (Australia) <palmcrust@gmail.com>
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>
+*/
+
+package com.palmcrust.yawadb;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+import android.os.SystemClock;
+
+import com.palmcrust.yawadb.StatusAnalyzer.Status;
+
+// Immutable, so it's passed between threads as is. Other components
+// get it parcelled, a few primitives instead of the serialized analyzer.
+public final class StatusSnapshot implements Parcelable {
+
+	// adbd pid, when it hasn't been looked for
+	public static final int PidUnknown = -2;
+
+	public static final StatusSnapshot UNDEFINED =
+		new StatusSnapshot(Status.UNDEFINED, null, StatusAnalyzer.DumbADBPort, PidUnknown, false, 0);
+
+	private final Status status;
+	private final String ipAddress;
+	private final int portNumber;
+	private final int adbdPid;
+	// adbd listens, but the firewall gate is closed (fast switch)
+	private final boolean gated;
+	// SystemClock.elapsedRealtime() when obtained
+	private final long time;
+
+	public StatusSnapshot(Status status, String ipAddress, int portNumber, int adbdPid,
+			boolean gated, long time) {
+		this.status = status;
+		this.ipAddress = ipAddress;
+		this.portNumber = portNumber;
+		this.adbdPid = adbdPid;
+		this.gated = gated;
+		this.time = time;
+	}
+
+	public Status getStatus() {
+		return status;
+	}
+
+	public String getIpAddress() {
+		return ipAddress;
+	}
+
+	public int getPortNumber() {
+		return portNumber;
+	}
+
+	public int getAdbdPid() {
+		return adbdPid;
+	}
+
+	public boolean isGated() {
+		return gated;
+	}
+
+	public long getTime() {
+		return time;
+	}
+
+	// elapsedRealtime() is the same in all processes, so the age of a
+	// parcelled snapshot is right too
+	public long getAge() {
+		return SystemClock.elapsedRealtime() - time;
+	}
+
+	// Fresh enough to be shown without probing again
+	public boolean isFresh(long maxAge) {
+		return getAge() <= maxAge;
+	}
+
+	public boolean isWirelessActive() {
+		return (portNumber != StatusAnalyzer.DumbADBPort && !gated);
+	}
+
+	public String evaluateADBConnectString() {
+		if (status != Status.UP) return null;
+
+		StringBuilder sb = new StringBuilder();
+		sb.append("adb connect ");
+		sb.append(ipAddress);
+		if (portNumber != StatusAnalyzer.DefaultADBPort) {
+			sb.append(':');
+			sb.append(portNumber);
+		}
+
+		return sb.toString();
+	}
+
+	// Same as far as the user can see, the pid and the time aside
+	public boolean sameStateAs(StatusSnapshot other) {
+		return status == other.status && portNumber == other.portNumber &&
+			gated == other.gated && (ipAddress == null ? other.ipAddress == null :
+				ipAddress.equals(other.ipAddress));
+	}
+
+	public int describeContents() {
+		return 0;
+	}
+
+	public void writeToParcel(Parcel dest, int flags) {
+		dest.writeInt(status.ordinal());
+		dest.writeString(ipAddress);
+		dest.writeInt(portNumber);
+		dest.writeInt(adbdPid);
+		dest.writeInt(gated ? 1 : 0);
+		dest.writeLong(time);
+	}
+
+	public static final Parcelable.Creator<StatusSnapshot> CREATOR = new Parcelable.Creator<StatusSnapshot>() {
+		public StatusSnapshot createFromParcel(Parcel source) {
+			Status status = Status.values()[source.readInt()];
+			String ipAddress = source.readString();
+			int portNumber = source.readInt();
+			int adbdPid = source.readInt();
+			boolean gated = (source.readInt() != 0);
+			return new StatusSnapshot(status, ipAddress, portNumber, adbdPid, gated, source.readLong());
+		}
+
+		public StatusSnapshot[] newArray(int size) {
+			return new StatusSnapshot[size];
+		}
+	};
+}
@@ -0,0 +1,122 @@
+/*
+   StatusStore. Keeps the last known status across process restarts.
+   Copyright (C) 2013 Michael Glickman (Australia) <palmcrust@gmail.com>
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>
+*/
+
+package com.palmcrust.yawadb;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import android.content.Context;
+import android.os.SystemClock;
+
+// The widget service paints the stored status as soon as it starts (after
+// a reboot or the process was killed), the analysis corrects it later.
+// The whole snapshot is kept, so the popup can tell how old it is. It's
+// written on every published transition, which is rare enough.
+//
+// elapsedRealtime() restarts on reboot, so the capture time is stored as
+// wall clock time and converted back on load.
+public class StatusStore {
+	private static final String StatusFileName = "status.dat";
+	private static final String TempFileName = "status.tmp";
+	private static final byte[] signature = {'Y', 'S'};
+	private static final short version = 1;
+
+	private static StatusStore defaultStore = null;
+
+	private final Context context;
+	private StatusSnapshot saved = null;
+
+	private StatusStore(Context context) {
+		this.context = context;
+	}
+
+	public static synchronized StatusStore getDefault(Context context) {
+		if (defaultStore == null)
+			defaultStore = new StatusStore(context.getApplicationContext());
+		return defaultStore;
+	}
+
+	// Returns null if nothing has been stored, or it can't be read. The
+	// adbd pid is not kept, it's likely to have changed.
+	public synchronized StatusSnapshot load() {
+		if (saved != null) return saved;
+		DataInputStream is = null;
+		try {
+			is = new DataInputStream(context.openFileInput(StatusFileName));
+			if (is.readByte() != signature[0] || is.readByte() != signature[1] ||
+					is.readUnsignedShort() > version)
+				throw new IOException("Wrong status file format");
+			StatusAnalyzer.Status status = StatusAnalyzer.Status.valueOf(is.readUTF());
+			String ipAddress = is.readBoolean() ? is.readUTF() : null;
+			int portNumber = is.readInt();
+			boolean gated = is.readBoolean();
+			long age = System.currentTimeMillis() - is.readLong();
+			// Obtained before this boot (or the clock has been changed)
+			long time = (age >= 0) ? Math.max(SystemClock.elapsedRealtime() - age, 0) : 0;
+			saved = new StatusSnapshot(status, ipAddress, portNumber, 
+					StatusSnapshot.PidUnknown, gated, time);
+		} catch (FileNotFoundException ex) {
+		} catch (IllegalArgumentException ex) {
+			// A status name we don't know
+			ex.printStackTrace();
+		} catch (IOException ex) {
+			ex.printStackTrace();
+		} finally {
+			if (is != null)
+				try {is.close();} catch (IOException ex) {}
+		}
+		return saved;
+	}
+
+	// Written aside and renamed, like the options. A snapshot the same as
+	// the saved one, but for the time, is not written.
+	public synchronized void save(StatusSnapshot snapshot) {
+		if (snapshot.getStatus() == StatusAnalyzer.Status.UNDEFINED ||
+				(saved != null && snapshot.sameStateAs(saved))) return;
+		DataOutputStream os = null;
+		try {
+			FileOutputStream fos = context.openFileOutput(TempFileName, Context.MODE_PRIVATE);
+			os = new DataOutputStream(fos);
+			os.write(signature);
+			os.writeShort(version);
+			os.writeUTF(snapshot.getStatus().name());
+			String ipAddress = snapshot.getIpAddress();
+			os.writeBoolean(ipAddress != null);
+			if (ipAddress != null) os.writeUTF(ipAddress);
+			os.writeInt(snapshot.getPortNumber());
+			os.writeBoolean(snapshot.isGated());
+			os.writeLong(System.currentTimeMillis() - snapshot.getAge());
+			os.flush();
+			fos.getFD().sync();
+			os.close();
+			os = null;
+			if (context.getFileStreamPath(TempFileName).renameTo(
+					context.getFileStreamPath(StatusFileName)))
+				saved = snapshot;
+		} catch (IOException ex) {
+			ex.printStackTrace();
+		} finally {
+			if (os != null)
+				try {os.close();} catch (IOException ex) {}
+		}
+	}
+}
@@ -20,10 +20,15 @@
 package com.palmcrust.yawadb;
 
 import java.io.BufferedReader;
-import java.io.DataOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 
 import android.content.Context;
 import android.widget.Toast;
@@ -43,17 +48,22 @@ public class Utils {
 //	}
 	
 	public static int getAdbdPid() {
-		 Process p = runCommand("ps", "adbd");
-		 if (p==null) return -1;
-		 BufferedReader rd = new BufferedReader(new InputStreamReader(p.getInputStream()));
+		int pid = AdbdLocator.getDefault().findPid();
+		// Can't see other processes in procfs, ask 'ps' instead
+		return (pid == AdbdLocator.PidUnavailable) ? getAdbdPidFromPs() : pid;
+	}
+
+	private static int getAdbdPidFromPs() {
+		 long start = System.nanoTime();
+		 ExecResult res = execute(ExecTimeout, "ps", "adbd");
+		 if (res==null) return -1;
+		 if (res.timedOut) return -2;
+		 BufferedReader rd = res.getReader();
 		 try { 
 			 String line;
 			 while((line=rd.readLine())!=null) {
-				 if (line.indexOf("/adbd") >= 0) {
-					 String[] tokens = line.split("[ \\t]+");
-					 if (tokens.length >= 2) 
-						 return Integer.parseInt(tokens[1]);
-				 }
+				 int pid = parsePsLine(line);
+				 if (pid >= 0) return pid;
 			 }
 			 return -1;
 		 } catch(Exception ex) {
@@ -61,7 +71,18 @@ public class Utils {
 			 return -2;
 		 } finally {
 			 try { rd.close();} catch(IOException ex) {}
+			 Metrics.ps.recordSince(start);
+		 }
+	}
+
+	// Returns adbd pid from a line of 'ps' output, or -1 if it's another process
+	static int parsePsLine(String line) {
+		 if (line.indexOf("/adbd") >= 0) {
+			 String[] tokens = line.split("[ \\t]+");
+			 if (tokens.length >= 2) 
+				 return Integer.parseInt(tokens[1]);
 		 }
+		 return -1;
 	}
 
 	public static boolean isEmpty(String str) {
@@ -70,50 +91,169 @@ public class Utils {
 
 	
 	public static String getProp(String name) {
-		 Process p = runCommand("getprop", name);
-		 if (p==null) return null;
-		 BufferedReader rd = new BufferedReader(new InputStreamReader(p.getInputStream()));
-		 String line=null;
-		 try { line = rd.readLine();
-		 	if (line != null) line = line.split("\r")[0];
-		 } catch(IOException ex) {ex.printStackTrace();}
-		 try { rd.close(); } catch(IOException ex) {}
-		 return (line != null && line.length() > 0) ? line : null;
+		return PropertyReader.getDefault().get(name);
 	}
 	
-	public static Process runCommand(String... cmd)  {
+	// Starts processes. Host-side tools put a fake in here.
+	static interface ProcessRunner {
+		Process start(boolean mergeErrors, String... cmd) throws IOException;
+	}
+
+	static volatile ProcessRunner processRunner = new ProcessRunner() {
+		public Process start(boolean mergeErrors, String... cmd) throws IOException {
+			return new ProcessBuilder(cmd).redirectErrorStream(mergeErrors).start();
+		}
+	};
+
+	// Longest a forked command may run (ms), it's killed then
+	public static final int ExecTimeout = 3000;
+	// Most of the output kept (bytes), the rest is read and dropped
+	private static final int MaxExecOutput = 256 * 1024;
+	private static final int MaxExecErrors = 4 * 1024;
+	// Most child processes at once. Forks are queued beyond that, so
+	// hanging commands can't pile up.
+	private static final int MaxProcesses = 4;
+	private static final Semaphore processPermits = new Semaphore(MaxProcesses, true);
+	private static Timer watchdogTimer = null;
+
+	public static class ExecResult {
+		public final int exitCode;
+		// Killed at the deadline, the output is what came before
+		public final boolean timedOut;
+		public final String output;
+		public final String errors;
+
+		ExecResult(int exitCode, boolean timedOut, String output, String errors) {
+			this.exitCode = exitCode;
+			this.timedOut = timedOut;
+			this.output = output;
+			this.errors = errors;
+		}
+
+		public BufferedReader getReader() {
+			return new BufferedReader(new StringReader(output));
+		}
+	}
+
+	// Destroys the process at the deadline unless cancelled before
+	static class ProcessWatchdog extends TimerTask {
+		private final Process process;
+		private volatile boolean fired = false;
+
+		ProcessWatchdog(Process process) {
+			this.process = process;
+		}
+
+		@Override
+		public void run() {
+			fired = true;
+			Metrics.execTimeouts.increment();
+			process.destroy();
+			// A child of the process (or su, which we can't kill) may keep the
+			// pipes open, closing our ends makes a blocked read fail on Android.
+			// stderr too, it's read after stdout.
+			try {process.getInputStream().close();} catch (IOException ex) {}
+			try {process.getErrorStream().close();} catch (IOException ex) {}
+		}
+
+		public boolean hasFired() {
+			return fired;
+		}
+	}
+
+	static synchronized ProcessWatchdog watch(Process process, long timeout) {
+		if (watchdogTimer == null)
+			watchdogTimer = new Timer("YawADB watchdog", true);
+		ProcessWatchdog watchdog = new ProcessWatchdog(process);
+		watchdogTimer.schedule(watchdog, Math.max(timeout, 0));
+		return watchdog;
+	}
+
+	// Runs the command to completion or for timeout ms at most, whichever
+	// comes first, and always leaves the child reaped. Returns null if the
+	// command couldn't be started, or not in time.
+	public static ExecResult execute(int timeout, String... cmd) {
+		long deadline = System.nanoTime() + timeout * 1000000L;
 		try {
-			 return Runtime.getRuntime().exec(cmd);
-		 } catch (IOException ex) {
-			 ex.printStackTrace();
-			 return null;
-		 }
-	 }
+			if (!processPermits.tryAcquire(timeout, TimeUnit.MILLISECONDS)) {
+				Metrics.execTimeouts.increment();
+				return null;
+			}
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			return null;
+		}
+
+		Process p = null;
+		ProcessWatchdog watchdog = null;
+		try {
+			Metrics.forks.increment();
+			p = processRunner.start(false, cmd);
+			watchdog = watch(p, (deadline - System.nanoTime()) / 1000000);
+			try {p.getOutputStream().close();} catch (IOException ex) {}
 
+			// stderr is only read after stdout, the commands we run
+			// don't write that much to it
+			String output = readBounded(p.getInputStream(), MaxExecOutput);
+			String errors = readBounded(p.getErrorStream(), MaxExecErrors);
+			int exitCode = p.waitFor();
+			watchdog.cancel();
+			return new ExecResult(exitCode, watchdog.hasFired(), output, errors);
+		} catch (IOException ex) {
+			ex.printStackTrace();
+			return null;
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			return null;
+		} finally {
+			if (watchdog != null) watchdog.cancel();
+			if (p != null) {
+				// No-op if it has exited, the runtime reaps it either way
+				p.destroy();
+				try {p.getInputStream().close();} catch (IOException ex) {}
+				try {p.getErrorStream().close();} catch (IOException ex) {}
+			}
+			processPermits.release();
+		}
+	}
+
+	// Returns the first limit bytes of the stream, reads it to the end.
+	// A stream closed by the watchdog ends the output.
+	private static String readBounded(InputStream is, int limit) {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream(256);
+		byte[] buf = new byte[1024];
+		try {
+			int len;
+			while ((len = is.read(buf)) >= 0) {
+				int keep = Math.min(len, limit - bos.size());
+				if (keep > 0) bos.write(buf, 0, keep);
+			}
+		} catch (IOException ex) {}
+		return bos.toString();
+	}
+
+	 // Commands are passed to a shared shell session, which stays
+	 // alive between calls, so we don't pay for starting 'su' every time.
 	 public static boolean runBatchSequence(
 			 final String shell, String[] cmdSequence) throws InterruptedException {
-		 DataOutputStream os = null;            
-		 try {
-			 Process p = Runtime.getRuntime().exec(shell);
-			 os = new DataOutputStream(p.getOutputStream());            
-			 for (String cmd : cmdSequence) {
-                 os.writeBytes(cmd);
-                 os.writeByte('\n');
-    			 os.flush();
-			 }           
-			 os.writeBytes("exit\n");  
-			 os.flush();
-			 p.waitFor();
-			 int exitValue = p.exitValue();
-			 return (exitValue == 0);
-		 } catch (IOException ex) {
-			 ex.printStackTrace();
-			 return false;
-		 } finally {
-			 if (os != null)
-				try {os.close();}catch(IOException ex){} 
+		 return (RootShell.getSession(shell).execute(cmdSequence) == 0);
+	}
+
+	 // Same, but the time each command takes is recorded in the histogram 
+	 // with the same index, and a failure of any of them fails the batch.
+	 // The batch goes to the shell at once, so a failed or slow 'stop'
+	 // doesn't keep 'start' from being run.
+	 public static boolean runBatchSequence(final String shell, String[] cmdSequence,
+			 Metrics.Histogram[] timings) throws InterruptedException {
+		 long[] stepEnds = new long[cmdSequence.length];
+		 long start = System.nanoTime();
+		 int exitCode = RootShell.getSession(shell).execute(RootShell.ShellTimeout, 
+				 cmdSequence, stepEnds);
+		 for (int i = 0; i < stepEnds.length && stepEnds[i] != 0; i++) {
+			 timings[i].record((stepEnds[i] - start) / 1000);
+			 start = stepEnds[i];
 		 }
-	 
+		 return (exitCode == 0);
 	}
 
 	public static void showTooltip(Context context, int msgId, int duration) {
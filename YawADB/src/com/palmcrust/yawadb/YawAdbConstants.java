@@ -22,16 +22,13 @@ package com.palmcrust.yawadb;
 
 public class YawAdbConstants {
 	public static final String AsWidgetExtra = "com.palmcrust.yawadb.extra.FromWidget";
-	public static final String StatusAnalyzerExtra = "com.palmcrust.yawadb.extra.StatusAnalyzer";
+	// StatusSnapshot: the last known status passed to the popup
+	public static final String SnapshotExtra = "com.palmcrust.yawadb.extra.Snapshot";
 	public static final String ComponentNameExtra = "com.palmcrust.yawadb.extra.ComponentName";
 	public static final String OnClickIntentExtra = "com.palmcrust.yawadb.extra.OnClickIntent";
-	public static final String ExplicitExtra = "com.palmcrust.yawadb.extra.Explicit";
 	public static final String NewAutoUsbExtra = "com.palmcrust.yawadb.extra.NewAutoUsb";
 	public static final String NewPortNumberExtra = "com.palmcrust.yawadb.extra.NewePortNumber";
 
-	public static final String OptionsChangedAction = "com.palmcrust.yawadb.action.NEWOPTIONS";
-	public static final String RefreshStatusAction = "com.palmcrust.yawadb.action.REFRESH";
-	public static final String ProviderRefreshAction = "com.palmcrust.yawadb.action.PROVIDERREFRESH";
-	public static final String AdbModeChangedAction = "com.palmcrust.yawadb.action.ADBMODECHANGED";
+	// Our other signals are events, see YawAdbEvents
 	public static final String PopupAction = "com.palmcrust.yawadb.action.POPUP";
 }
@@ -0,0 +1,58 @@
+/*
+   YawAdbEvents. Events posted on the EventBus.
+   Copyright (C) 2013 Michael Glickman (Australia) <palmcrust@gmail.com>
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>
+*/
+
+package com.palmcrust.yawadb;
+
+// Events between our own components, see EventBus. Broadcasts are left
+// for system events and the widget click (its PendingIntent is fired by
+// the launcher).
+public class YawAdbEvents {
+
+	// The popup wants the widget to be up to date
+	public static class RefreshStatus {
+	}
+
+	// ConfigActivity has saved the options
+	public static class OptionsChanged {
+	}
+
+	// The launcher has updated the widget (YawAdbProvider.onUpdate)
+	public static class ProviderRefresh {
+	}
+
+	// AdbModeChanger has finished
+	public static class AdbModeChanged {
+		private final boolean explicit;
+		private final StatusSnapshot verified;
+
+		// verified: the state after the change, null if it has failed
+		public AdbModeChanged(boolean explicit, StatusSnapshot verified) {
+			this.explicit = explicit;
+			this.verified = verified;
+		}
+
+		// Requested by enable/disable command, not by auto USB or new options
+		public boolean isExplicit() {
+			return explicit;
+		}
+
+		public StatusSnapshot getVerified() {
+			return verified;
+		}
+	}
+}
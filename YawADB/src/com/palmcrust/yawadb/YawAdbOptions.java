@@ -18,16 +18,12 @@
 
 package com.palmcrust.yawadb;
 
-import java.io.EOFException;
-import java.io.FileNotFoundException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.util.Arrays;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
-import java.util.zip.GZIPInputStream;
-import java.util.zip.GZIPOutputStream;
 
 import android.content.Context;
 import android.content.res.Resources;
@@ -41,6 +37,7 @@ public class YawAdbOptions {
 		protected int boxId,  nameResId;
 		protected int errMsgId;
 		protected Object curValue, defaultValue;
+		protected boolean readOnly = false;
 		
 
 		protected Option(String key, int boxId, int nameResId, int errMsgId, Object defaultValue) {
@@ -76,6 +73,8 @@ public class YawAdbOptions {
 		}
 
 		public boolean setValue(Object newValue) {
+			if (readOnly) 
+				throw new IllegalStateException("Shared options are read only");
 			boolean result = validateValue(newValue);
 			if (result) curValue = newValue;
 			return result;
@@ -123,6 +122,8 @@ public class YawAdbOptions {
 		}
 
 		public void nextValue() {
+			if (readOnly) 
+				throw new IllegalStateException("Shared options are read only");
 			int curValueInt = (Integer) curValue;
 			if (++curValueInt >= choiceResIds.length) curValueInt = 0;
 			curValue = curValueInt;
@@ -204,8 +205,11 @@ public class YawAdbOptions {
 		{0, 3000, 20000, 60000, 600000, 1800000};	
 
 	
+	public static final int AdbdRestartNormal = 0;
+	public static final int AdbdRestartForced = 1;
+	public static final int AdbdRestartAuto = 2;
 	private static final int[] adbRestartStringIds =
-		{R.string.adbdRestartNormal, R.string.adbdRestartForced}; 
+		{R.string.adbdRestartNormal, R.string.adbdRestartForced, R.string.adbdRestartAuto}; 
 
 	public IntegerOption portNumber =
 			new IntegerOption("PN", R.id.optPortNumber, 
@@ -223,20 +227,63 @@ public class YawAdbOptions {
 	public AlternativesOption adbdRestartMethod = 
 			new AlternativesOption("ARM", R.id.optAdbRestart,  R.string.optAdbdRestart, 0, 0, adbRestartStringIds);   
 	
-	public Option[] allOptions = {portNumber, autoRefresh, autoUsb, shellPath,  adbdRestartMethod};
+	public AlternativesOption fastSwitch = 
+			new AlternativesOption("FS", R.id.optFastSwitch,  R.string.optFastSwitch, 0, 0, autoOffStringIds);   
+	
+	public Option[] allOptions = {portNumber, autoRefresh, autoUsb, shellPath,  adbdRestartMethod, fastSwitch};
 	
 	//-----------------------------------------------------------------------------------------------------
 	
 	private static final String SavedOptionsFileName = "options.dat";
-	private static final byte[] signature = {'Y', 'A'}; 
-	private static final short version = 0; 
+	private static final String TempOptionsFileName = "options.tmp";
 //	private static final String SharedPrefsName = "YawAdbOptions"; 
+
+	// Loaded once per process, replaced on save, or when the file changes
+	private static volatile YawAdbOptions shared = null;
+
 	private Context context;
+	// Modification time of the file the values have been loaded from
+	private long fileStamp;
 	
 	public YawAdbOptions(Context context) {
 		this.context = context;
 		loadPreferences();
 	}
+
+	private YawAdbOptions(YawAdbOptions source, boolean readOnly) {
+		context = source.context;
+		fileStamp = source.fileStamp;
+		for (int i = 0; i < allOptions.length; i++) {
+			allOptions[i].curValue = source.allOptions[i].curValue;
+			allOptions[i].readOnly = readOnly;
+		}
+	}
+
+	// Returns read-only options, shared by all the components. 
+	// Use edit() to obtain a copy, which can be changed and saved.
+	public static YawAdbOptions getShared(Context context) {
+		YawAdbOptions options = shared;
+		if (options == null || options.fileStamp != getFileStamp(context)) {
+			synchronized(YawAdbOptions.class) {
+				options = shared;
+				if (options == null || options.fileStamp != getFileStamp(context)) {
+					options = new YawAdbOptions(context.getApplicationContext());
+					for (Option opt : options.allOptions)
+						opt.readOnly = true;
+					shared = options;
+				}
+			}
+		}
+		return options;
+	}
+
+	public YawAdbOptions edit() {
+		return new YawAdbOptions(this, false);
+	}
+
+	private static long getFileStamp(Context context) {
+		return context.getFileStreamPath(SavedOptionsFileName).lastModified();
+	}
 	
 	
 	
@@ -252,39 +299,79 @@ public class YawAdbOptions {
 //	}
 
 	private void loadPreferences() {
-		ObjectInputStream ois = null;
-		Map<String, Object> allValues = new HashMap<String, Object>(); 
-
-		try {
-			ois = new ObjectInputStream(
-					new GZIPInputStream(
-						context.openFileInput(SavedOptionsFileName)));
-			byte[] sgn = new byte[2];
-			ois.read(sgn);
-			if (!Arrays.equals(sgn, signature))
-				throw new IllegalStateException ("Wrong signature");
-			sgn = null;
-			
-			if (ois.readUnsignedShort() > version)
-				throw new IllegalStateException ("Incompatible version");
-
-			for (;;) 
-				allValues.put(ois.readUTF(), ois.readObject());
-			
-		} catch (FileNotFoundException ex) {
-		} catch (EOFException ex) {
-		} catch (Exception ex) { ex.printStackTrace(); }
-			
-		if (ois != null)
-			try {ois.close();} catch (IOException ex) {}
+		Map<String, Object> allValues = null; 
+		boolean legacy = false;
+
+		byte[] data = readFile();
+		if (data != null)
+			try {
+				legacy = OptionsCodec.isLegacy(data, data.length);
+				allValues = legacy 
+					? OptionsCodec.decodeLegacy(data, data.length)
+					: OptionsCodec.decode(data, data.length);
+			} catch (IOException ex) { ex.printStackTrace(); }
 		
 		for (Option opt : allOptions) {
 			String key = opt.getKey();
-			if (allValues.containsKey(key))
+			if (allValues != null && allValues.containsKey(key))
 				opt.setValue(allValues.get(key));
 			else
 				opt.setDefaultValue();
 		}
+
+		// Convert version 1.2 file to the current format
+		if (legacy) writeFile();
+		fileStamp = getFileStamp(context);
+	}
+
+	// The file is tiny, we read it in a single buffer
+	private byte[] readFile() {
+		File file = context.getFileStreamPath(SavedOptionsFileName);
+		int length = (int) file.length();
+		if (length <= 0) return null;
+
+		FileInputStream is = null;
+		try {
+			is = new FileInputStream(file);
+			byte[] data = new byte[length];
+			int total = 0;
+			int count;
+			while (total < length && (count = is.read(data, total, length - total)) > 0)
+				total += count;
+			return (total == length) ? data : null;
+		} catch (IOException ex) {
+			ex.printStackTrace();
+			return null;
+		} finally {
+			if (is != null)
+				try {is.close();} catch (IOException ex) {}
+		}
+	}
+
+	// The new file is written aside and then renamed, so a crash 
+	// can't leave us with a half written file. 
+	private boolean writeFile() {
+		Map<String, Object> allValues = new LinkedHashMap<String, Object>();
+		for (Option opt : allOptions) 
+			allValues.put(opt.getKey(), opt.getValue());
+
+		FileOutputStream os = null;
+		try {
+			byte[] data = OptionsCodec.encode(allValues);
+			os = context.openFileOutput(TempOptionsFileName, Context.MODE_PRIVATE);
+			os.write(data);
+			os.getFD().sync();
+			os.close();
+			os = null;
+			return context.getFileStreamPath(TempOptionsFileName).renameTo(
+					context.getFileStreamPath(SavedOptionsFileName));
+		} catch (IOException ex) {
+			ex.printStackTrace();
+			return false;
+		} finally {
+			if (os != null)
+				try {os.close();} catch (IOException ex) {}
+		}
 	}
 		
 //	public void savePreferences() {
@@ -302,24 +389,12 @@ public class YawAdbOptions {
 //	}
 
 	public void savePreferences() {
-		ObjectOutputStream oos = null;
+		writeFile();
 
-		try {
-			oos = new ObjectOutputStream(
-					new GZIPOutputStream(
-						context.openFileOutput(SavedOptionsFileName, Context.MODE_PRIVATE)));
-			oos.write(signature);
-			oos.writeShort(version);
-
-			for (Option opt : allOptions) { 
-				oos.writeUTF(opt.getKey());
-				oos.writeObject(opt.getValue());
-			}
-			
-		} catch (Exception ex) { ex.printStackTrace(); }
-			
-		if (oos != null)
-			try {oos.close();} catch (IOException ex) {}
+		fileStamp = getFileStamp(context);
+		synchronized(YawAdbOptions.class) {
+			shared = new YawAdbOptions(this, true);
+		}
 	}
 
 	
@@ -67,7 +67,7 @@ public class YawAdbProvider extends AppWidgetProvider {
 				Utils.showTooltip(context, R.string.msgSrvcStrtFail, Toast.LENGTH_LONG);
 		}
 		else
-			context.sendBroadcast(new Intent(YawAdbConstants.ProviderRefreshAction));
+			EventBus.getDefault().post(new YawAdbEvents.ProviderRefresh());
 	}
 
 
@@ -18,6 +18,9 @@
 
 package com.palmcrust.yawadb;
 
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+
 import android.annotation.TargetApi;
 import android.app.PendingIntent;
 import android.app.Service;
@@ -27,11 +30,15 @@ import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
+import android.content.res.Resources;
 import android.net.ConnectivityManager;
 import android.os.Build;
 import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.IBinder;
+import android.os.Looper;
 import android.os.Message;
+import android.os.SystemClock;
 import android.util.Log;
 import android.widget.RemoteViews;
 
@@ -46,11 +53,23 @@ public class YawAdbService extends Service {
 	private boolean autoUsb;
 	protected int refrInterval;
 	private PendingIntent onClickIntent;
-	private AdbModeChanger modeChanger;
 	protected StatusAnalyzer analyzer;
+	private HandlerThread analysisThread;
+	private StatusUpdateHandler updateHandler;
+	private WidgetServiceMessageHandler mainHandler;
+	private StatusFilter statusFilter;
+	private StatusStore statusStore;
+	// The snapshot last passed to the filter
+	private StatusSnapshot filteredSnapshot;
+	// For startup metrics: when the service was started, and whether 
+	// the analysed status has been painted since
+	private long startNanos;
+	private boolean analysedPainted;
 
 	
 	private static final String LogTag = "YawADB";
+	// Events arriving within this time (ms) are served by a single analysis
+	private static final int UpdateDebounceDelay = 250;
 	private static final String MsgNullIntent=" Null intent at \'%s\'! Ignoring the call";
 
 	@Override
@@ -77,23 +96,41 @@ public class YawAdbService extends Service {
 	}
 	
 	private void handleStartCommand(Intent intent) {
+		startNanos = System.nanoTime();
+		analysedPainted = false;
 		analyzer = new StatusAnalyzer(this);
 		appWidgetManager = AppWidgetManager.getInstance(this);
 		views = new RemoteViews(getPackageName(), R.layout.widget);
 		providerCompName = intent.getParcelableExtra(YawAdbConstants.ComponentNameExtra);
 		onClickIntent = intent.getParcelableExtra(YawAdbConstants.OnClickIntentExtra);
 		oldImageResId = 0;
-		modeChanger = null;
+		// See res/values/integers.xml
+		Resources res = getResources();
+		statusFilter = new StatusFilter(res.getInteger(R.integer.stableStatusTime),
+				res.getInteger(R.integer.stableStatusConfirmations));
+		statusStore = StatusStore.getDefault(this);
+		filteredSnapshot = null;
 		refrThread = null;
 
+		if (analysisThread == null) {
+			mainHandler = new WidgetServiceMessageHandler(this);
+			analysisThread = new HandlerThread("YawADB status update");
+			analysisThread.start();
+			updateHandler = new StatusUpdateHandler(this, analysisThread.getLooper());
+		}
+
+		StatusAnalyzer.addListener(statusListener, analysisThread.getLooper());
 		processOptions(true);
+
+		EventBus bus = EventBus.getDefault();
+		Looper mainLooper = Looper.getMainLooper();
+		bus.subscribe(YawAdbEvents.OptionsChanged.class, mainLooper, optionsSubscriber);
+		bus.subscribe(YawAdbEvents.RefreshStatus.class, mainLooper, refreshSubscriber);
+		bus.subscribe(YawAdbEvents.ProviderRefresh.class, mainLooper, providerRefreshSubscriber);
+		bus.subscribe(YawAdbEvents.AdbModeChanged.class, mainLooper, modeChangedSubscriber);
 		
 		bcastReceiver= new WidgetServiceBroadcastReceiver(this);
 		IntentFilter filter = new IntentFilter();
-		filter.addAction(YawAdbConstants.ProviderRefreshAction);
-		filter.addAction(YawAdbConstants.RefreshStatusAction);
-		filter.addAction(YawAdbConstants.OptionsChangedAction);
-		filter.addAction(YawAdbConstants.AdbModeChangedAction);
 		filter.addAction(YawAdbConstants.PopupAction);
 		filter.addAction(Intent.ACTION_AIRPLANE_MODE_CHANGED); 
 		filter.addAction(Intent.ACTION_SCREEN_ON); 
@@ -101,7 +138,17 @@ public class YawAdbService extends Service {
 		filter.addAction(ConnectivityManager.CONNECTIVITY_ACTION);
 		getApplicationContext().registerReceiver(bcastReceiver, filter);
 
+		// Shown until the analysis (already requested) corrects it,
+		// pushed together with the click intent. The popup gets it as well.
+		StatusSnapshot lastKnown = statusStore.load();
+		if (lastKnown != null) {
+			StatusAnalyzer.seedCurrent(lastKnown);
+			oldImageResId = getImageResId(lastKnown.getStatus());
+			views.setImageViewResource(R.id.modeImg, oldImageResId);
+		}
 		setIntentOnClickListener();
+		if (lastKnown != null)
+			Metrics.startupPaint.recordSince(startNanos);
 
 	}
 			
@@ -109,9 +156,9 @@ public class YawAdbService extends Service {
 		// We ALWAYS restart the thread in order to reset ticks!
 		terminateAutoRefresh();
 		
-		YawAdbOptions options = new YawAdbOptions(this);
+		YawAdbOptions options = YawAdbOptions.getShared(this);
 		autoUsb = options.getAutoUsbValue();
-		updateStatus(forceRefresh); // To disable WADB is necessary
+		requestStatusUpdate(forceRefresh); // To disable WADB is necessary
 		
 		refrInterval = options.getRefreshInterval();
 		startAutoRefreshIfRequested();
@@ -121,20 +168,32 @@ public class YawAdbService extends Service {
 	@Override
 	public void onDestroy() {
 		
+		EventBus bus = EventBus.getDefault();
+		bus.unsubscribe(optionsSubscriber);
+		bus.unsubscribe(refreshSubscriber);
+		bus.unsubscribe(providerRefreshSubscriber);
+		bus.unsubscribe(modeChangedSubscriber);
+
 		if (bcastReceiver != null) {
 			getApplicationContext().unregisterReceiver(bcastReceiver);
 			bcastReceiver = null;
 		}
 
-		if (modeChanger != null) {
-			modeChanger.interrupt();
-			modeChanger = null;
-		}
-		
 		if (refrThread != null) {
 			refrThread.terminate();
 			refrThread = null;
 		}
+
+		StatusAnalyzer.removeListener(statusListener);
+
+		if (analysisThread != null) {
+			updateHandler.removeMessages(StatusUpdateHandler.WHAT_ANALYZE);
+			updateHandler.removeMessages(StatusUpdateHandler.WHAT_CONFIRM);
+			analysisThread.quit();
+			analysisThread = null;
+		}
+
+		RootShell.closeSession();
 		super.onDestroy();
 	}
 
@@ -143,6 +202,14 @@ public class YawAdbService extends Service {
 		return null;
 	}
 
+	// adb shell dumpsys activity service com.palmcrust.yawadb/.YawAdbService
+	@Override
+	protected void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+		Metrics.dump(writer);
+		writer.println();
+		RestartTuner.load(this).dump(writer);
+	}
+
 	protected void startAutoRefreshIfRequested() {
 		if (refrInterval > 0 && (refrThread==null || !refrThread.isAlive())) {
 			refrThread = new AutoRefreshThread(this, refrInterval);
@@ -150,6 +217,13 @@ public class YawAdbService extends Service {
 		}
 	}
 
+	// Also called by the status listener, in other threads
+	protected void nudgeAutoRefresh() {
+		AutoRefreshThread thread = refrThread;
+		if (thread != null) 
+			thread.nudge();
+	}
+
 	protected void terminateAutoRefresh() {
 		if (refrThread != null) {
 			refrThread.terminate();
@@ -158,18 +232,106 @@ public class YawAdbService extends Service {
 		}
 	}
 	
-	protected boolean updateStatus(boolean force) {
-		boolean success = analyzer.analyze();
-		if (success) refreshStatus(force);
-		return success;
+	// The analysis runs in background, the widget is then updated 
+	// in the main thread.
+	protected void requestStatusUpdate(boolean force) {
+		updateHandler.request(force, UpdateDebounceDelay);
 	}
 	
 	
-	protected void refreshStatus(boolean force) {
-		StatusAnalyzer.Status stat = analyzer.getStatus();
+	// Changes found by the popup's analyses or by mode changes. Our own
+	// analyses are heard of here too, they are filtered only once.
+	private final StatusAnalyzer.Listener statusListener = new StatusAnalyzer.Listener() {
+		public void onStatusChanged(StatusSnapshot snapshot) {
+			publishStatus(snapshot, false);
+			nudgeAutoRefresh();
+		}
+	};
 
-		int newImageResId = (stat == StatusAnalyzer.Status.UP) ? 
+	// Events of our own components, handled in the main thread, like the broadcasts
+	private final EventBus.Subscriber<YawAdbEvents.OptionsChanged> optionsSubscriber = 
+			new EventBus.Subscriber<YawAdbEvents.OptionsChanged>() {
+		public void onEvent(YawAdbEvents.OptionsChanged event) {
+			processOptions(false);
+		}
+	};
+
+	private final EventBus.Subscriber<YawAdbEvents.RefreshStatus> refreshSubscriber = 
+			new EventBus.Subscriber<YawAdbEvents.RefreshStatus>() {
+		public void onEvent(YawAdbEvents.RefreshStatus event) {
+			statusEventReceived(0);
+		}
+	};
+
+	private final EventBus.Subscriber<YawAdbEvents.ProviderRefresh> providerRefreshSubscriber = 
+			new EventBus.Subscriber<YawAdbEvents.ProviderRefresh>() {
+		public void onEvent(YawAdbEvents.ProviderRefresh event) {
+			statusEventReceived(0);
+			setIntentOnClickListener();
+			startAutoRefreshIfRequested();
+		}
+	};
+
+	private final EventBus.Subscriber<YawAdbEvents.AdbModeChanged> modeChangedSubscriber = 
+			new EventBus.Subscriber<YawAdbEvents.AdbModeChanged>() {
+		public void onEvent(YawAdbEvents.AdbModeChanged event) {
+			// Mode change is expected to change the status, show it at once
+			resetStatusFilter();
+			statusEventReceived(StatusAnalyzer.probesChangedBy(event));
+			setIntentOnClickListener();
+			startAutoRefreshIfRequested();
+		}
+	};
+
+	// An event which may have changed the status
+	protected void statusEventReceived(int probesChanged) {
+		StatusAnalyzer.invalidate(probesChanged);
+		requestStatusUpdate(false);
+		nudgeAutoRefresh();
+	}
+
+	// The snapshot already filtered will be filtered again too
+	private synchronized void resetStatusFilter() {
+		statusFilter.reset();
+		filteredSnapshot = null;
+	}
+
+	// Called in the thread which has obtained the snapshot. A transition 
+	// not yet confirmed is probed again later.
+	protected void publishStatus(StatusSnapshot snapshot, boolean force) {
+		long now = SystemClock.elapsedRealtime();
+		StatusAnalyzer.Status status = snapshot.getStatus();
+		StatusAnalyzer.Status stable;
+		synchronized(this) {
+			if (snapshot == filteredSnapshot) {
+				// Not seen again, just painted again
+				if (!force) return;
+				stable = statusFilter.getPublished();
+			} else {
+				filteredSnapshot = snapshot;
+				stable = statusFilter.update(status, now);
+			}
+		}
+		long confirmDelay = statusFilter.getConfirmDelay(now);
+		if (confirmDelay >= 0)
+			updateHandler.requestConfirmation(
+				StatusAnalyzer.probesBehind(status) | StatusAnalyzer.probesBehind(stable), confirmDelay);
+
+		mainHandler.obtainMessage(WidgetServiceMessageHandler.WHAT_SET_APPEARANCE, 
+				force ? 1 : 0, 0, stable).sendToTarget();
+		// Unless a transition is pending, the snapshot tells what's shown
+		if (stable == status)
+			statusStore.save(snapshot);
+	}
+	
+	private static int getImageResId(StatusAnalyzer.Status stat) {
+		return (stat == StatusAnalyzer.Status.UP) ? 
 				R.drawable.wireless_up : R.drawable.wireless_down;
+	}
+
+	protected void refreshStatus(boolean force, StatusAnalyzer.Status stat) {
+
+		int newImageResId = getImageResId(stat);
 
 		if (force || (newImageResId != oldImageResId)) {
 			views.setImageViewResource(R.id.modeImg, newImageResId);
@@ -177,8 +339,13 @@ public class YawAdbService extends Service {
 			oldImageResId = newImageResId; 
 		}
 
+		if (!analysedPainted) {
+			analysedPainted = true;
+			Metrics.startupStatus.recordSince(startNanos);
+		}
+
 		if (autoUsb && (stat == StatusAnalyzer.Status.NO_NETWORK) &&
-				analyzer.isWirelessActive())  
+				StatusAnalyzer.getCurrent().isWirelessActive())  
 			(new Handler()).postDelayed(new Runnable() {
 					public void run() {
 						startAdbModeChanger();
@@ -187,10 +354,7 @@ public class YawAdbService extends Service {
 	}
 
 	protected void startAdbModeChanger() {
-		if (modeChanger == null || !modeChanger.isAlive()) {
-			modeChanger = new AdbModeChanger(YawAdbService.this, false, false);
-			modeChanger.start();
-		}
+		ModeChangeQueue.getDefault().submit(this, false, false, null);
 	}
 	
 	protected synchronized void setIntentOnClickListener() {
@@ -203,7 +367,7 @@ public class YawAdbService extends Service {
 		Intent intent = new Intent(this, PopupActivity.class);
 		intent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
 //		intent.putExtra(YawAdbConstants.AsWidgetExtra, true);
-		intent.putExtra(YawAdbConstants.StatusAnalyzerExtra, analyzer);
+		intent.putExtra(YawAdbConstants.SnapshotExtra, StatusAnalyzer.getCurrent());
 		startActivity(intent);
 	}
 
@@ -219,25 +383,19 @@ public class YawAdbService extends Service {
 		public void onReceive(Context context, Intent intent) {
 			String action = intent.getAction();
 
-			if (action.equals(YawAdbConstants.OptionsChangedAction)) 
-				service.processOptions(false);
-			else
 			if (action.equals(Intent.ACTION_SCREEN_OFF)) 
 				service.terminateAutoRefresh();
 			else {
 				//  YawAdbConstants.PopupAction
-				//  YawAdbConstants.RefreshStatusAction
-				//  YawAdbConstants.ProviderRefreshAction
 				//	Intent.ACTION_AIRPLANE_MODE_CHANGED 
 				//	Intent.ACTION_SCREEN_ON 
 				//  ConnectivityManager.CONNECTIVITY_ACTION  
-				service.updateStatus(false);
+				service.statusEventReceived(StatusAnalyzer.probesChangedBy(action));
 
+				// The popup shows the last known status at once and refreshes it itself
 				if (action.equals(YawAdbConstants.PopupAction)) 
 					service.startPopupActivity();
-				else 
-				if (!action.equals(YawAdbConstants.RefreshStatusAction)) {
-					//  YawAdbConstants.ProviderRefreshAction
+				else {
 					//	Intent.ACTION_AIRPLANE_MODE_CHANGED 
 					//	Intent.ACTION_SCREEN_ON 
 					//  ConnectivityManager.CONNECTIVITY_ACTION  
@@ -261,23 +419,72 @@ public class YawAdbService extends Service {
 		@Override
 		public void handleMessage(Message msg) {
 			if (msg.what == WHAT_SET_APPEARANCE) 
-				service.refreshStatus(msg.arg1 != 0);
+				service.refreshStatus(msg.arg1 != 0, (StatusAnalyzer.Status) msg.obj);
 		}
 			
 	}
 	//=========================================================================
+	// Runs in the analysis thread. Requests arriving while one is pending
+	// join it, so a burst of broadcasts results in a single analysis.
+	private static class StatusUpdateHandler extends android.os.Handler {
+		protected static final int WHAT_ANALYZE = 1;
+		protected static final int WHAT_CONFIRM = 2;
+		private YawAdbService service;
+		private boolean force = false;
+
+		protected StatusUpdateHandler(YawAdbService service, Looper looper) {
+			super(looper);
+			this.service = service;
+		}
+
+		public synchronized void request(boolean force, int delay) {
+			this.force |= force;
+			if (!hasMessages(WHAT_ANALYZE))
+				sendEmptyMessageDelayed(WHAT_ANALYZE, delay);
+		}
+
+		// The probes (ProbeXXX flags) are done again after the delay, 
+		// cached results won't do for confirmation
+		public void requestConfirmation(int probes, long delay) {
+			removeMessages(WHAT_CONFIRM);
+			sendMessageDelayed(obtainMessage(WHAT_CONFIRM, probes, 0), delay);
+		}
+
+		@Override
+		public void handleMessage(Message msg) {
+			if (msg.what == WHAT_CONFIRM) 
+				StatusAnalyzer.invalidate(msg.arg1);
+			else
+			if (msg.what != WHAT_ANALYZE) return;
+
+			boolean force;
+			synchronized(this) {
+				force = this.force;
+				this.force = false;
+			}
+
+			if (service.analyzer.analyze(StatusAnalyzer.RecentResultAge))
+				service.publishStatus(service.analyzer.getSnapshot(), force);
+		}
+	}
+	//=========================================================================
+	// Polls often right after a change, then backs off exponentially while
+	// the status stays the same. The interval set by user is the ceiling. 
 	private static class AutoRefreshThread extends Thread {
+		private static final int FastInterval = 1000;
 //		public static enum InterruptReason {UNDEFINED, UPDATE_STATUS, TERMINATE}
 //		public InterruptReason reason = InterruptReason.UNDEFINED;
-		private WidgetServiceMessageHandler handler;
+		private YawAdbService service;
 		private boolean force=false; 
-		private int sleepTimeout;
+		private int maxInterval;
+		private int interval = 0;
+		private boolean hurry = false;
 		private StatusAnalyzer analyzer;
 		
-		protected AutoRefreshThread(YawAdbService service, int sleepTimeout) {
+		protected AutoRefreshThread(YawAdbService service, int maxInterval) {
 			super();
-			handler = new WidgetServiceMessageHandler(service);
-			this.sleepTimeout = sleepTimeout;
+			this.service = service;
+			this.maxInterval = maxInterval;
 			this.analyzer = service.analyzer;
 		}
 
@@ -291,21 +498,48 @@ public class YawAdbService extends Service {
 //			reason = InterruptReason.TERMINATE;
 			interrupt();	
 		}
+
+		// Something has happened (event, toggle), go back to polling fast
+		public synchronized void nudge() {
+			hurry = true;
+			notify();
+		}
 		
 		public void run() {
 			try {
 				while(analyzer.analyze()) {
-					Message msg = Message.obtain(
-						handler, WidgetServiceMessageHandler.WHAT_SET_APPEARANCE, force ? 1: 0, 0);
-					msg.sendToTarget();
+					service.publishStatus(analyzer.getSnapshot(), force);
 					force = false;
-					Thread.sleep(sleepTimeout);
+					waitNextTick();
 				}
 			} catch (InterruptedException ex) {
 //					if (reason != InterruptReason.UPDATE_STATUS)
 //						break;
 			}
 		}
+
+		// A status change nudges us (see statusListener)
+		private synchronized void waitNextTick() throws InterruptedException {
+			if (hurry || interval <= 0)
+				interval = Math.min(FastInterval, maxInterval);
+			else
+				interval = Math.min(interval * 2, maxInterval);
+			hurry = false;
+
+			// Nudges only bring the tick nearer, so a storm of them
+			// doesn't keep postponing it
+			long deadline = System.nanoTime() + interval * 1000000L;
+			for (;;) {
+				long remaining = (deadline - System.nanoTime()) / 1000000;
+				if (remaining <= 0) break;
+				wait(remaining);
+				if (hurry) {
+					hurry = false;
+					interval = Math.min(FastInterval, maxInterval);
+					deadline = Math.min(deadline, System.nanoTime() + interval * 1000000L);
+				}
+			}
+		}
 	}
 
 }